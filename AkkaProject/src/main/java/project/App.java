@@ -39,10 +39,11 @@ public class App {
 
     private static Behavior<Void> rootBehavior(int nReplicas, int messageRate) {
         return Behaviors.setup(context -> {
-            // Create an actor that handles cluster domain events
-            context.spawn(ClusterListener.create(), "ClusterListener");
             ActorRef<DataNode.Command> dataNode = context.spawn(DataNode.create(nReplicas, messageRate), "DataNode");
-            UserRoutes userRoutes = new UserRoutes(context.getSystem(), dataNode);
+            // Create an actor that handles cluster domain events
+            context.spawn(ClusterListener.create(dataNode), "ClusterListener");
+            Gateway gateway = new Gateway(context.spawn(Gateway.create(dataNode), "Gateway"));
+            UserRoutes userRoutes = new UserRoutes(context.getSystem(), dataNode, gateway);
             TestRoutes testRoutes = new TestRoutes(context.getSystem(), dataNode);
             startHttpServer(concat(userRoutes.userRoutes(),testRoutes.testRoutes()), context.getSystem());
             return Behaviors.empty();
@@ -0,0 +1,38 @@
+package project;
+
+/**
+ * The keys of a set in bitsPerKey bits each: a key sets hashes bits, derived from its token ( see KeyToken) by double
+ * hashing, and a key whose bits are not all set is surely not in the set. A key whose bits are all set may be a false
+ * positive, with a probability of about 0.6185^bitsPerKey ( 1% with 10 bits per key). Kept in memory only.
+ * Not thread safe.
+ */
+public class BloomFilter {
+    private final long[] bits;
+    private final long size;
+    private final int hashes;
+
+    public BloomFilter(long expectedKeys, int bitsPerKey) {
+        this.bits = new long[(int) ((Math.max(64, expectedKeys * bitsPerKey) + 63) / 64)];
+        this.size = bits.length * 64L;
+        this.hashes = Math.max(1, (int) Math.round(bitsPerKey * Math.log(2)));
+    }
+
+    public void add(long token) {
+        long h1 = (int) token;
+        long h2 = (int) (token >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, size);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(long token) {
+        long h1 = (int) token;
+        long h2 = (int) (token >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(h1 + i * h2, size);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+}
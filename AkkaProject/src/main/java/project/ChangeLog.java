@@ -0,0 +1,116 @@
+package project;
+
+import akka.NotUsed;
+import akka.japi.Pair;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.BroadcastHub;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The writes of the clients to the leader copies of a data node, numbered in the order they are stored: the copies
+ * moved by a topology change, repaired or replayed from a hint are not changes. The last bufferSize are
+ * kept, so that a watch can start from a sequence number, or from a version; the new ones are broadcast to the watches
+ * through a BroadcastHub, started by the first watch. The log has an id of its own, different every time the node
+ * starts, so that a sequence number is never taken for one of another log. The queue in front of the hub holds bufferSize changes and drops the oldest when the
+ * slowest watch falls behind: a watch gets the changes it has missed from the buffer when it receives the next one.
+ * Recorded by the data node only; the streams of the watches read the buffer concurrently.
+ */
+public class ChangeLog {
+    //a power of two, as required by the hub
+    private static final int HUB_BUFFER_SIZE = 256;
+
+    private final String id;
+    private final int bufferSize;
+    private final Materializer materializer;
+    private final ConcurrentSkipListMap<Long, Entry> buffer = new ConcurrentSkipListMap<>();
+    private long sequence = 0;
+    //null until the first watch
+    private SourceQueueWithComplete<Entry> queue;
+    private Source<Entry, NotUsed> hub;
+
+    public ChangeLog(String id, int bufferSize, Materializer materializer) {
+        this.id = id;
+        this.bufferSize = bufferSize;
+        this.materializer = materializer;
+    }
+
+    //the value is null if it is erasure coded
+    public void record(String key, Value value, long version, long writer) {
+        Entry entry = new Entry(++sequence, key, value, version, writer);
+        buffer.put(entry.sequence, entry);
+        if (sequence > bufferSize) buffer.remove(sequence - bufferSize);
+        if (queue != null) queue.offer(entry);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    //the sequence number a watch from the version starts after: the one before the first buffered change newer than
+    //the version, or the last one if there is none
+    public long sequenceAfter(long fromVersion) {
+        for (Entry entry : buffer.values()) {
+            if (entry.version > fromVersion) return entry.sequence - 1;
+        }
+        return sequence;
+    }
+
+    //the buffered changes of the keys starting with the prefix after the sequence number, then the new ones as they
+    //are recorded
+    public Source<DataNode.Change, NotUsed> watch(String prefix, long fromSequence) {
+        if (hub == null) {
+            Pair<SourceQueueWithComplete<Entry>, Source<Entry, NotUsed>> pair = Source.<Entry>queue(bufferSize, OverflowStrategy.dropHead())
+                    .toMat(BroadcastHub.of(Entry.class, HUB_BUFFER_SIZE), Keep.both())
+                    .run(materializer);
+            queue = pair.first();
+            hub = pair.second();
+        }
+        long last = sequence;
+        List<Entry> replay = fromSequence < last ? new ArrayList<>(buffer.subMap(fromSequence, false, last, true).values())
+                : Collections.emptyList();
+        Source<Entry, NotUsed> live = hub.statefulMapConcat(() -> {
+            long[] seen = {last};
+            return entry -> {
+                if (entry.sequence <= seen[0]) return Collections.<Entry>emptyList();
+                //the changes recorded before the watch was attached to the hub, or dropped in front of it
+                List<Entry> entries = new ArrayList<>(buffer.subMap(seen[0], false, entry.sequence, false).values());
+                entries.add(entry);
+                seen[0] = entry.sequence;
+                return entries;
+            };
+        });
+        return Source.from(replay).concat(live)
+                .filter(entry -> prefix == null || entry.key.startsWith(prefix))
+                .map(entry -> entry.toChange(id));
+    }
+
+    private static final class Entry {
+        private final long sequence;
+        private final String key;
+        private final Value value;
+        private final long version;
+        private final long writer;
+
+        private Entry(long sequence, String key, Value value, long version, long writer) {
+            this.sequence = sequence;
+            this.key = key;
+            this.value = value;
+            this.version = version;
+            this.writer = writer;
+        }
+
+        //decompressed only here, in the stream of a watch
+        private DataNode.Change toChange(String log) {
+            boolean deleted = value != null && value.isDeleted();
+            return new DataNode.Change(key, value == null || deleted ? null : value.text(), version, writer, deleted, log, sequence);
+        }
+    }
+}
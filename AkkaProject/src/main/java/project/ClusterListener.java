@@ -1,5 +1,6 @@
 package project;
 
+import akka.actor.Address;
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
 import akka.actor.typed.javadsl.AbstractBehavior;
@@ -29,12 +30,16 @@ public final class ClusterListener extends AbstractBehavior<ClusterListener.Even
         }
     }
 
-    public static Behavior<Event> create() {
-        return Behaviors.setup(ClusterListener::new);
+    //the data node is told about reachability changes, so that it routes around unreachable members
+    private final ActorRef<DataNode.Command> dataNode;
+
+    public static Behavior<Event> create(ActorRef<DataNode.Command> dataNode) {
+        return Behaviors.setup(context -> new ClusterListener(context, dataNode));
     }
 
-    private ClusterListener(ActorContext<Event> context) {
+    private ClusterListener(ActorContext<Event> context, ActorRef<DataNode.Command> dataNode) {
         super(context);
+        this.dataNode = dataNode;
 
         Cluster cluster = Cluster.get(context.getSystem());
 
@@ -58,10 +63,13 @@ public final class ClusterListener extends AbstractBehavior<ClusterListener.Even
 
 
     private Behavior<Event> onReachabilityChange(ReachabilityChange event) {
+        Address address = event.reachabilityEvent.member().address();
         if (event.reachabilityEvent instanceof ClusterEvent.UnreachableMember) {
             getContext().getLog().info("Member detected as unreachable: {}", event.reachabilityEvent.member());
+            tellReachability(address, false);
         } else if (event.reachabilityEvent instanceof ClusterEvent.ReachableMember) {
             getContext().getLog().info("Member back to reachable: {}", event.reachabilityEvent.member());
+            tellReachability(address, true);
         }
         return this;
     }
@@ -74,8 +82,16 @@ public final class ClusterListener extends AbstractBehavior<ClusterListener.Even
                     event.memberEvent.member(),
                     ((ClusterEvent.MemberRemoved) event.memberEvent).previousStatus()
             );
+            //a removed member is not unreachable anymore: it simply leaves the table of nodes
+            tellReachability(event.memberEvent.member().address(), true);
         }
         return this;
     }
 
+    private void tellReachability(Address address, boolean reachable) {
+        if (address.getHost().isPresent() && address.getPort().isPresent()) {
+            dataNode.tell(new DataNode.ReachabilityChanged(address.getHost().get(), address.getPort().get(), reachable));
+        }
+    }
+
 }
@@ -0,0 +1,47 @@
+package project;
+
+/**
+ * Estimates how many times each key has been counted in fixed memory: depth rows of width counters, a key adds to
+ * one counter of each row and its estimate is the smallest of them, which never underestimates.
+ * Counting is conservative: only the smallest counters of the key grow, the others already count other keys too.
+ * The counters are keyed by the token of the key, see KeyToken. Not thread safe.
+ */
+public class CountMinSketch {
+    private final int[][] counters;
+    private final int mask;
+
+    public CountMinSketch(int depth, int width) {
+        int size = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+        this.counters = new int[depth][size];
+        this.mask = size - 1;
+    }
+
+    //counting the key once more, returns its new estimate
+    public int increment(long token) {
+        int estimate = estimate(token) + 1;
+        int h1 = (int) token;
+        int h2 = (int) (token >>> 32);
+        for (int row = 0; row < counters.length; row++) {
+            int column = (h1 + row * h2) & mask;
+            if (counters[row][column] < estimate) counters[row][column] = estimate;
+        }
+        return estimate;
+    }
+
+    public int estimate(long token) {
+        int h1 = (int) token;
+        int h2 = (int) (token >>> 32);
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < counters.length; row++) {
+            estimate = Math.min(estimate, counters[row][(h1 + row * h2) & mask]);
+        }
+        return estimate;
+    }
+
+    //halving all the counters, so that the counts of the past weigh less and less
+    public void age() {
+        for (int[] row : counters) {
+            for (int i = 0; i < row.length; i++) row[i] >>>= 1;
+        }
+    }
+}
@@ -8,12 +8,25 @@ import akka.actor.typed.javadsl.TimerScheduler;
 import akka.actor.typed.receptionist.Receptionist;
 import akka.actor.typed.receptionist.ServiceKey;
 import akka.cluster.typed.Cluster;
-
+import akka.stream.Materializer;
+import akka.stream.SourceRef;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamRefs;
+import akka.util.ByteString;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.typesafe.config.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -26,53 +39,358 @@ public class DataNode  {
     public static final class GetRequest implements Command {
         public final String key;
         public final ActorRef<Command> replyTo;
+        //0 if the requester waits for the answer itself, see Correlated
+        public final long correlationId;
 
         public GetRequest( String key, ActorRef<Command> replyTo){
+            this(key, replyTo, 0);
+        }
+
+        public GetRequest( String key, ActorRef<Command> replyTo, long correlationId){
             this.key=key;
             this.replyTo=replyTo;
+            this.correlationId=correlationId;
         }
     }
 
     public static final class GetAnswer implements Command{
+        //the error of a copy which cannot be read from disk, see Store
+        public static final String UNREADABLE = "the value cannot be read";
         public final String key;
         public final String value;
         public final boolean isPresent;
         public final int requestId;
+        public final long version;
+        public final long writer;
+        public final int successorId;
+        //see Value
+        public final long expiresAt;
+        //why the copy could not be read, null if it has been: the key is then not present, whether it is or not
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public final String error;
+
+        public GetAnswer(String key, String value, boolean isPresent, Integer requestId, long version, long writer, int successorId, long expiresAt){
+            this(key, value, isPresent, requestId, version, writer, successorId, expiresAt, null);
+        }
 
-        public GetAnswer(String key, String value, boolean isPresent, Integer requestId){
+        @JsonCreator
+        public GetAnswer(String key, String value, boolean isPresent, Integer requestId, long version, long writer, int successorId, long expiresAt,
+                         String error){
             this.key = key;
             this.value = value;
             this.isPresent = isPresent;
             this.requestId = requestId;
+            this.version = version;
+            this.writer = writer;
+            this.successorId = successorId;
+            this.expiresAt = expiresAt;
+            this.error = error;
         }
 
 
     }
 
+    //the key crosses the nodes which redirect the request as it has been received, see Put.
+    //The token of the key, see KeyToken, is computed once by the node contacted by the client
     public static final class Get implements Command{
-        public final String key;
+        public final long token;
         public final ActorRef<Command> replyTo;
         public final int requestId;
         public final int successorID;
+        //the requester keeps the answer in its near cache: the copy invalidates it when the key is written
+        public final boolean watch;
+        private String key;
+        private final ByteString payload;
 
-        public Get(String key, ActorRef<Command> replyTo, int requestId, int successorID){
-            this.key=key;
-            this.replyTo=replyTo;
+        public Get(long token, String key, ActorRef<Command> replyTo, int requestId, int successorID){
+            this(token, key, replyTo, requestId, successorID, false);
+        }
+
+        @JsonCreator
+        public Get(long token, String key, ActorRef<Command> replyTo, int requestId, int successorID, boolean watch){
+            this(token, key, null, replyTo, requestId, successorID, watch);
+        }
+
+        //redirecting the request without decoding the key
+        public Get(Get other, int successorID){
+            this(other.token, other.key, other.payload, other.replyTo, other.requestId, successorID, other.watch);
+        }
+
+        Get(long token, ByteString payload, ActorRef<Command> replyTo, int requestId, int successorID, boolean watch){
+            this(token, null, payload, replyTo, requestId, successorID, watch);
+        }
+
+        private Get(long token, String key, ByteString payload, ActorRef<Command> replyTo, int requestId, int successorID, boolean watch){
+            this.token = token;
+            this.key = key;
+            this.payload = payload;
+            this.replyTo = replyTo;
             this.requestId = requestId;
             this.successorID = successorID;
+            this.watch = watch;
+        }
+
+        @JsonProperty("key")
+        public String key(){
+            if (key == null) key = DataNodeSerializer.readKey(payload);
+            return key;
+        }
+
+        //the serialized key, null if the request has been created by this node
+        ByteString payload(){
+            return payload;
+        }
+    }
+    public static final class GetBatch implements Command{
+        public final List<Get> gets;
+
+        @JsonCreator
+        public GetBatch(@JsonProperty("gets") List<Get> gets){
+            this.gets = gets;
+        }
+    }
+
+    public static final class GetBatchAnswer implements Command{
+        public final List<GetAnswer> answers;
+
+        @JsonCreator
+        public GetBatchAnswer(@JsonProperty("answers") List<GetAnswer> answers){
+            this.answers = answers;
+        }
+    }
+
+    public static final class MultiGetRequest implements Command{
+        public final List<String> keys;
+        public final ActorRef<Command> replyTo;
+        public final long correlationId;
+
+        public MultiGetRequest(List<String> keys, ActorRef<Command> replyTo){
+            this(keys, replyTo, 0);
+        }
+
+        public MultiGetRequest(List<String> keys, ActorRef<Command> replyTo, long correlationId){
+            this.keys = keys;
+            this.replyTo = replyTo;
+            this.correlationId = correlationId;
+        }
+    }
+
+    //one answer for each key of the multi get
+    public static final class MultiGetAnswer implements Command{
+        public final List<GetAnswer> answers;
+        public final int requestId;
+
+        public MultiGetAnswer(List<GetAnswer> answers, int requestId){
+            this.answers = answers;
+            this.requestId = requestId;
         }
     }
     //---------------------------------------------------------------------------------------------------
 
     public static final class PutRequest implements Command{
+        //the expected version of an unconditional put
+        public static final long ANY_VERSION = Long.MIN_VALUE;
+
         public final String key;
         public final Value value;
         public final ActorRef<Command> replyTo;
+        public final long correlationId;
+        //the write is applied only if the key has this version and writer at its leader ( Value.UNASSIGNED if the key
+        //must be missing or deleted, whatever the writer), ANY_VERSION if it is unconditional: see ConditionalPut
+        public final long expectedVersion;
+        public final long expectedWriter;
 
         public PutRequest(String key, Value value, ActorRef<Command> replyTo){
+            this(key, value, replyTo, 0);
+        }
+
+        public PutRequest(String key, Value value, ActorRef<Command> replyTo, long correlationId){
+            this(key, value, replyTo, correlationId, ANY_VERSION, 0);
+        }
+
+        public PutRequest(String key, Value value, ActorRef<Command> replyTo, long correlationId, long expectedVersion, long expectedWriter){
             this.key=key;
             this.value=value;
             this.replyTo=replyTo;
+            this.correlationId=correlationId;
+            this.expectedVersion=expectedVersion;
+            this.expectedWriter=expectedWriter;
+        }
+    }
+
+    //a compare-and-set sent to the leader of the key, which checks the version and writes the value in one step:
+    //the value is not compressed yet, the leader compresses it. The version is compared with its writer, as two
+    //nodes may stamp the same version
+    public static final class ConditionalPut implements Command{
+        public final long token;
+        public final String key;
+        public final Value value;
+        public final long expectedVersion;
+        public final long expectedWriter;
+        public final ActorRef<Command> replyTo;
+        public final int requestId;
+
+        @JsonCreator
+        public ConditionalPut(@JsonProperty("token") long token, @JsonProperty("key") String key, @JsonProperty("value") Value value,
+                              @JsonProperty("expectedVersion") long expectedVersion, @JsonProperty("expectedWriter") long expectedWriter,
+                              @JsonProperty("replyTo") ActorRef<Command> replyTo, @JsonProperty("requestId") int requestId){
+            this.token = token;
+            this.key = key;
+            this.value = value;
+            this.expectedVersion = expectedVersion;
+            this.expectedWriter = expectedWriter;
+            this.replyTo = replyTo;
+            this.requestId = requestId;
+        }
+    }
+
+    //an atomic update of the value of a key, applied by its leader: see Update
+    public static final class UpdateRequest implements Command{
+        public final String key;
+        public final Operation operation;
+        //the amount of INCR and DECR
+        public final long by;
+        //the string appended by APPEND
+        public final String operand;
+        public final ActorRef<Command> replyTo;
+        public final long correlationId;
+
+        public UpdateRequest(String key, Operation operation, long by, String operand, ActorRef<Command> replyTo, long correlationId){
+            this.key = key;
+            this.operation = operation;
+            this.by = by;
+            this.operand = operand;
+            this.replyTo = replyTo;
+            this.correlationId = correlationId;
+        }
+    }
+
+    public enum Operation{
+        INCR, DECR, APPEND
+    }
+
+    //an update sent to the leader of the key, which reads its copy, computes the new value and writes it in one step,
+    //like a ConditionalPut
+    public static final class Update implements Command{
+        public final long token;
+        public final String key;
+        public final Operation operation;
+        public final long by;
+        public final String operand;
+        public final ActorRef<Command> replyTo;
+        public final int requestId;
+
+        @JsonCreator
+        public Update(@JsonProperty("token") long token, @JsonProperty("key") String key, @JsonProperty("operation") Operation operation,
+                      @JsonProperty("by") long by, @JsonProperty("operand") String operand, @JsonProperty("replyTo") ActorRef<Command> replyTo,
+                      @JsonProperty("requestId") int requestId){
+            this.token = token;
+            this.key = key;
+            this.operation = operation;
+            this.by = by;
+            this.operand = operand;
+            this.replyTo = replyTo;
+            this.requestId = requestId;
+        }
+    }
+
+    //the value written by an update with its version, or why it could not be applied
+    public static final class UpdateAnswer implements Command{
+        public final boolean success;
+        public final int requestId;
+        public final String value;
+        public final long version;
+        public final long writer;
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public final String error;
+
+        @JsonCreator
+        public UpdateAnswer(@JsonProperty("success") boolean success, @JsonProperty("requestId") int requestId, @JsonProperty("value") String value,
+                            @JsonProperty("version") long version, @JsonProperty("writer") long writer, @JsonProperty("error") String error){
+            this.success = success;
+            this.requestId = requestId;
+            this.value = value;
+            this.version = version;
+            this.writer = writer;
+            this.error = error;
+        }
+    }
+
+    //asking the stream of the changes of the leader copies of this node, see ChangeLog
+    //a watch resumed from the sequence number of the last change received from each change log, see Watcher,
+    //or started from a version if positions is null
+    public static final class Watch implements Command{
+        //null for all the keys
+        public final String prefix;
+        public final long fromVersion;
+        public final Map<String, Long> positions;
+        public final ActorRef<Command> replyTo;
+
+        @JsonCreator
+        public Watch(@JsonProperty("prefix") String prefix, @JsonProperty("fromVersion") long fromVersion,
+                     @JsonProperty("positions") Map<String, Long> positions, @JsonProperty("replyTo") ActorRef<Command> replyTo){
+            this.prefix = prefix;
+            this.fromVersion = fromVersion;
+            this.positions = positions;
+            this.replyTo = replyTo;
+        }
+    }
+
+    //the changes of the node after the sequence number fromSequence of its change log, null if it has none
+    public static final class WatchAnswer implements Command{
+        public final SourceRef<Change> changes;
+        public final String log;
+        public final long fromSequence;
+
+        @JsonCreator
+        public WatchAnswer(@JsonProperty("changes") SourceRef<Change> changes, @JsonProperty("log") String log,
+                           @JsonProperty("fromSequence") long fromSequence){
+            this.changes = changes;
+            this.log = log;
+            this.fromSequence = fromSequence;
+        }
+    }
+
+    //a write of a leader copy: the value is null if the key has been deleted, or if it is erasure coded and must be
+    //read with a GET. The sequence numbers the changes of the change log ( see ChangeLog) of the node which has
+    //written the copy
+    public static final class Change implements CborSerializable{
+        public final String key;
+        public final String value;
+        public final long version;
+        public final long writer;
+        public final boolean deleted;
+        public final String log;
+        public final long sequence;
+
+        @JsonCreator
+        public Change(@JsonProperty("key") String key, @JsonProperty("value") String value, @JsonProperty("version") long version,
+                      @JsonProperty("writer") long writer, @JsonProperty("deleted") boolean deleted, @JsonProperty("log") String log,
+                      @JsonProperty("sequence") long sequence){
+            this.key = key;
+            this.value = value;
+            this.version = version;
+            this.writer = writer;
+            this.deleted = deleted;
+            this.log = log;
+            this.sequence = sequence;
+        }
+    }
+
+    //the version written by a conditional put, or the current version of the key if it did not match
+    public static final class ConditionalPutAnswer implements Command{
+        public final boolean success;
+        public final int requestId;
+        public final long version;
+        public final long writer;
+
+        @JsonCreator
+        public ConditionalPutAnswer(@JsonProperty("success") boolean success, @JsonProperty("requestId") int requestId,
+                                    @JsonProperty("version") long version, @JsonProperty("writer") long writer){
+            this.success = success;
+            this.requestId = requestId;
+            this.version = version;
+            this.writer = writer;
         }
     }
 
@@ -86,21 +404,250 @@ public class DataNode  {
         }
     }
 
+    //a put received from another node keeps its key and value serialized in the payload, and decodes them
+    //only when they are needed: the nodes which just redirect it route it with the header fields,
+    //and forward the payload as it is
     public static final class Put implements Command{
-        public final String key;
-        public final Value value;
+        public final long token;
         public final ActorRef<Command> replyTo;
         public final boolean isReplica;
         public final int requestId;
         public final int successorId;
+        //a write of a client, which the leader records in its change log: not a copy moved by a topology change,
+        //repaired or replayed from a hint
+        public final boolean isWrite;
+        private String key;
+        private Value value;
+        private final ByteString payload;
+
+        public Put(long token, String key, Value value, ActorRef<Command> replyTo, boolean isReplica, Integer requestId, int successorId) {
+            this(token, key, value, replyTo, isReplica, requestId, successorId, false);
+        }
+
+        @JsonCreator
+        public Put(long token, String key, Value value, ActorRef<Command> replyTo, boolean isReplica, Integer requestId, int successorId,
+                   boolean isWrite) {
+            this(token, key, value, null, replyTo, isReplica, requestId, successorId, isWrite);
+        }
 
-        public Put(String key, Value value, ActorRef<Command> replyTo, boolean isReplica, Integer requestId, int successorId) {
+        //redirecting the put without decoding its key and value
+        public Put(Put other, ActorRef<Command> replyTo, boolean isReplica, Integer requestId, int successorId) {
+            this(other.token, other.key, other.value, other.payload, replyTo, isReplica, requestId, successorId, other.isWrite);
+        }
+
+        Put(long token, ByteString payload, ActorRef<Command> replyTo, boolean isReplica, int requestId, int successorId, boolean isWrite) {
+            this(token, null, null, payload, replyTo, isReplica, requestId, successorId, isWrite);
+        }
+
+        private Put(long token, String key, Value value, ByteString payload, ActorRef<Command> replyTo, boolean isReplica, int requestId, int successorId,
+                    boolean isWrite) {
+            this.token = token;
             this.key = key;
             this.value = value;
+            this.payload = payload;
             this.replyTo = replyTo;
             this.isReplica = isReplica;
             this.requestId = requestId;
             this.successorId = successorId;
+            this.isWrite = isWrite;
+        }
+
+        @JsonProperty("key")
+        public String key(){
+            if (key == null) decode();
+            return key;
+        }
+
+        @JsonProperty("value")
+        public Value value(){
+            if (value == null) decode();
+            return value;
+        }
+
+        //the serialized key and value, null if the put has been created by this node
+        ByteString payload(){
+            return payload;
+        }
+
+        private void decode(){
+            DataNodeSerializer.KeyValue decoded = DataNodeSerializer.readKeyValue(payload);
+            key = decoded.key;
+            value = decoded.value;
+        }
+    }
+
+    public static final class PutBatch implements Command{
+        public final List<Put> puts;
+
+        @JsonCreator
+        public PutBatch(@JsonProperty("puts") List<Put> puts){
+            this.puts = puts;
+        }
+    }
+
+    public static final class PutAnswerBatch implements Command{
+        public final List<PutAnswer> answers;
+
+        @JsonCreator
+        public PutAnswerBatch(@JsonProperty("answers") List<PutAnswer> answers){
+            this.answers = answers;
+        }
+    }
+
+    //a write of a key read with watch, pushed by the copy to the near cache of the reader
+    public static final class Invalidate implements Command{
+        public final String key;
+        public final long version;
+        public final long writer;
+
+        @JsonCreator
+        public Invalidate(@JsonProperty("key") String key, @JsonProperty("version") long version, @JsonProperty("writer") long writer){
+            this.key = key;
+            this.version = version;
+            this.writer = writer;
+        }
+    }
+
+    public static final class MultiPutRequest implements Command{
+        public final Map<String, Value> entries;
+        public final ActorRef<Command> replyTo;
+        public final long correlationId;
+
+        public MultiPutRequest(Map<String, Value> entries, ActorRef<Command> replyTo){
+            this(entries, replyTo, 0);
+        }
+
+        public MultiPutRequest(Map<String, Value> entries, ActorRef<Command> replyTo, long correlationId){
+            this.entries = entries;
+            this.replyTo = replyTo;
+            this.correlationId = correlationId;
+        }
+    }
+
+    //the answer to a client request with a correlation id, see Gateway. It never leaves the node
+    public static final class Correlated implements Command{
+        public final long correlationId;
+        public final Command answer;
+
+        public Correlated(long correlationId, Command answer){
+            this.correlationId = correlationId;
+            this.answer = answer;
+        }
+    }
+
+    //a put too large for one message: the payload of the put ( its key and value, serialized as by DataNodeSerializer)
+    //arrives in chunks through the stream ref, with backpressure, and the put is rebuilt once it is complete.
+    //It is serialized by Jackson, which sends the stream ref only
+    public static final class PutStream implements Command{
+        public final long token;
+        public final SourceRef<ByteString> payload;
+        public final ActorRef<Command> replyTo;
+        public final boolean isReplica;
+        public final int requestId;
+        public final int successorId;
+        //see Put
+        public final boolean isWrite;
+
+        @JsonCreator
+        public PutStream(@JsonProperty("token") long token, @JsonProperty("payload") SourceRef<ByteString> payload,
+                         @JsonProperty("replyTo") ActorRef<Command> replyTo, @JsonProperty("isReplica") boolean isReplica,
+                         @JsonProperty("requestId") int requestId, @JsonProperty("successorId") int successorId,
+                         @JsonProperty("isWrite") boolean isWrite){
+            this.token = token;
+            this.payload = payload;
+            this.replyTo = replyTo;
+            this.isReplica = isReplica;
+            this.requestId = requestId;
+            this.successorId = successorId;
+            this.isWrite = isWrite;
+        }
+    }
+
+    //the stream of a PutStream has failed, e.g. because the sender has left: the put is lost like a lost message.
+    //It never leaves the node
+    public static final class PutStreamFailed implements Command{
+        public final int requestId;
+        public final Throwable cause;
+
+        public PutStreamFailed(int requestId, Throwable cause){
+            this.requestId = requestId;
+            this.cause = cause;
+        }
+    }
+
+    //a shard of an erasure coded value for one of its holders, acknowledged with a PutAnswer
+    public static final class ShardPut implements Command{
+        public final long token;
+        public final String key;
+        public final Shard shard;
+        public final ActorRef<Command> replyTo;
+        public final int requestId;
+        //see Put
+        public final boolean isWrite;
+
+        @JsonCreator
+        public ShardPut(@JsonProperty("token") long token, @JsonProperty("key") String key, @JsonProperty("shard") Shard shard,
+                        @JsonProperty("replyTo") ActorRef<Command> replyTo, @JsonProperty("requestId") int requestId,
+                        @JsonProperty("isWrite") boolean isWrite){
+            this.token = token;
+            this.key = key;
+            this.shard = shard;
+            this.replyTo = replyTo;
+            this.requestId = requestId;
+            this.isWrite = isWrite;
+        }
+    }
+
+    //asking a holder the shards it keeps of the key, to rebuild its value
+    public static final class GetShards implements Command{
+        public final String key;
+        public final ActorRef<Command> replyTo;
+        public final int requestId;
+
+        @JsonCreator
+        public GetShards(@JsonProperty("key") String key, @JsonProperty("replyTo") ActorRef<Command> replyTo, @JsonProperty("requestId") int requestId){
+            this.key = key;
+            this.replyTo = replyTo;
+            this.requestId = requestId;
+        }
+    }
+
+    public static final class ShardsAnswer implements Command{
+        public final int requestId;
+        public final List<Shard> shards;
+
+        @JsonCreator
+        public ShardsAnswer(@JsonProperty("requestId") int requestId, @JsonProperty("shards") List<Shard> shards){
+            this.requestId = requestId;
+            this.shards = shards;
+        }
+    }
+
+    public static final class Handoff implements Command{
+        public final String key;
+        public final Value value;
+        public final int successorId;
+        public final ActorRef<Command> replyTo;
+        public final int requestId;
+
+        public Handoff(String key, Value value, int successorId, ActorRef<Command> replyTo, int requestId){
+            this.key = key;
+            this.value = value;
+            this.successorId = successorId;
+            this.replyTo = replyTo;
+            this.requestId = requestId;
+        }
+    }
+
+    public static final class ReachabilityChanged implements Command{
+        public final String address;
+        public final int port;
+        public final boolean reachable;
+
+        public ReachabilityChanged(String address, int port, boolean reachable){
+            this.address = address;
+            this.port = port;
+            this.reachable = reachable;
         }
     }
 
@@ -116,6 +663,10 @@ public class DataNode  {
         INSTANCE
     }
 
+    private enum ExpiryTick implements Command {
+        INSTANCE
+    }
+
 
 
 
@@ -156,6 +707,131 @@ public class DataNode  {
         }
     }
 
+    //a page of the copies stored by the node: the first limit keys in order from the key from ( included or not)
+    //to the key to ( excluded), a null bound is open. See Scanner
+    public static class ExportPage implements TestCommand{
+        public final String from;
+        public final boolean fromInclusive;
+        public final String to;
+        public final int limit;
+        public final boolean leaderOnly;
+        public final ActorRef<DataNode.Command> replyTo;
+
+        public ExportPage(String from, boolean fromInclusive, String to, int limit, boolean leaderOnly, ActorRef<DataNode.Command> replyTo){
+            this.from = from;
+            this.fromInclusive = fromInclusive;
+            this.to = to;
+            this.limit = limit;
+            this.leaderOnly = leaderOnly;
+            this.replyTo = replyTo;
+        }
+    }
+
+    public static class ExportPageAnswer implements TestCommand{
+        public final List<ExportRecord> records;
+        public final boolean last;
+
+        public ExportPageAnswer(List<ExportRecord> records, boolean last){
+            this.records = records;
+            this.last = last;
+        }
+    }
+
+    public static class ExportRecord{
+        public final String key;
+        public final String value;
+        public final long version;
+        public final long writer;
+        public final boolean leader;
+
+        public ExportRecord(String key, String value, long version, long writer, boolean leader){
+            this.key = key;
+            this.value = value;
+            this.version = version;
+            this.writer = writer;
+            this.leader = leader;
+        }
+    }
+
+    public static class GetMetrics implements TestCommand{
+        public final ActorRef<DataNode.Command> replyTo;
+
+        public GetMetrics(ActorRef<DataNode.Command> replyTo){ this.replyTo = replyTo;
+        }
+    }
+
+    //counters of the node since it started
+    public static class Metrics implements TestCommand{
+        public final String node;
+        public final Map<String, Long> counters;
+
+        public Metrics(String node, Map<String, Long> counters){
+            this.node = node;
+            this.counters = counters;
+        }
+    }
+
+    public static class GetHotKeys implements TestCommand{
+        public final ActorRef<DataNode.Command> replyTo;
+
+        public GetHotKeys(ActorRef<DataNode.Command> replyTo){ this.replyTo = replyTo;
+        }
+    }
+
+    public static class HotKeysAnswer implements TestCommand{
+        public final String node;
+        public final List<HotKeys.HotKey> hotKeys;
+
+        public HotKeysAnswer(String node, List<HotKeys.HotKey> hotKeys){
+            this.node = node;
+            this.hotKeys = hotKeys;
+        }
+    }
+
+    public static class GetDistributionRequest implements TestCommand{
+        public final ActorRef<DataNode.Command> replyTo;
+
+        public GetDistributionRequest(ActorRef<DataNode.Command> replyTo){ this.replyTo = replyTo;
+        }
+    }
+
+    public static class GetKeyCount implements TestCommand{
+        public final ActorRef<DataNode.Command> replyTo;
+        public final int requestId;
+
+        public GetKeyCount(ActorRef<DataNode.Command> replyTo, int requestId){
+            this.replyTo = replyTo;
+            this.requestId = requestId;
+        }
+    }
+
+    public static class KeyCount implements TestCommand{
+        public final String node;
+        public final int leaderKeys;
+        public final int replicaKeys;
+        public final int requestId;
+
+        public KeyCount(String node, int leaderKeys, int replicaKeys, int requestId){
+            this.node = node;
+            this.leaderKeys = leaderKeys;
+            this.replicaKeys = replicaKeys;
+            this.requestId = requestId;
+        }
+    }
+
+    //the keys stored by each node, and the ratio between the most loaded leader and the average one ( 1 is a perfect balance)
+    public static class GetDistributionAnswer implements TestCommand{
+        public final List<KeyCount> nodes;
+        public final int totalKeys;
+        public final double skew;
+
+        public GetDistributionAnswer(List<KeyCount> nodes, int totalKeys, double skew){
+            this.nodes = nodes;
+            this.totalKeys = totalKeys;
+            this.skew = skew;
+        }
+    }
+
     //-----------------------------------------------------------------------
     //static attributes
     private static final ServiceKey<Command> KEY= ServiceKey.create(Command.class, "node");
@@ -164,21 +840,91 @@ public class DataNode  {
     private static final String NODEPATTERN = "Actor[akka://ClusterSystem@" + IPADDRESSPATTERN + ":" + PORTPATTERN + "/user/DataNode#-" + "([0-9]+)]";
     private static final String IDENTIFIER = IPADDRESSPATTERN + ":" + PORTPATTERN;
     private static final Object TIMER_KEY = new Object();
+    private static final Object EXPIRY_TIMER_KEY = new Object();
 
     //final actor attributes
     private final String port;
     private final String address;
     private final int nReplicas;
+    private final int readQuorum;
+    private final boolean leaderlessWrites;
     private final int messageRate;
     private final List<NodeInfo> nodes = new ArrayList<>();
     private final ActorContext<Command> context;
-    private final HashMap<String,Value> data = new HashMap<>();
-    private final HashMap<String,Value> replicas = new HashMap<>();
+    //the leader copies and the replicas, each within half of akka.store.memory-budget and spilled to disk beyond it
+    private final Store data;
+    private final Store replicas;
+    //the single GETs waiting for the copies of their key, joined by the GETs of the same key arriving meanwhile
+    private final HashMap<String, Request> inflightGets = new HashMap<>();
+    private final boolean coalesceReads;
+    private final long coalesceMaxAge;
+    private long getRequests = 0;
+    private long coalescedGets = 0;
+    //the keys read most often through this node, and the copies of the hot ones; both null if akka.hot-keys is off
+    private final HotKeys hotKeys;
+    private final NearCache nearCache;
+    //the readers to invalidate at the next write of each key they watch, forgotten after the near cache ttl
+    private final HashMap<String, Watchers> watchers = new HashMap<>();
+    private final long nearCacheTtl;
+    private long nearCacheHits = 0;
+    //the keys with a ttl, removed at most batch-size at each tick of the wheel
+    private final ExpiryWheel expiry;
+    private final int expiryBatchSize;
+    private long expiredKeys = 0;
+    //the tombstones of the deleted keys removed after their grace period, see Value.deleted
+    private long sweptTombstones = 0;
+    //the conditional puts written, and the ones refused because the key had another version
+    private long conditionalPuts = 0;
+    private long conflicts = 0;
+    private long updates = 0;
+    //the changes of the leader copies for the watches, null if akka.changes is off
+    private final ChangeLog changes;
+    private long invalidations = 0;
+    //the values of at least this many characters are compressed when they enter the cluster, 0 if compression is off
+    private final int compressionThreshold;
+    private long compressedValues = 0;
+    private long compressedSavedBytes = 0;
+    //the puts of at least streamThreshold bytes to another node are streamed in chunks, see PutStream
+    private final long streamThreshold;
+    private final int streamChunkSize;
+    private final Materializer materializer;
+    private long streamedPuts = 0;
+    //the values of at least erasureThreshold bytes are split into shards instead of being replicated, see Shard;
+    //null if akka.erasure is off
+    private final ReedSolomon erasure;
+    private final int erasureThreshold;
+    private final long erasureReadTimeout;
+    //the shards held by this node for each key, all of the same version, indexed by shard
+    private final HashMap<String, Shard[]> shards = new HashMap<>();
+    //the values being rebuilt from their shards, by request id
+    private final HashMap<Integer, Rebuild> rebuilds = new HashMap<>();
+    private long codedValues = 0;
+    private long rebuiltValues = 0;
+    private long failedRebuilds = 0;
+    //the copies answered as failed GETs because they could not be read from disk
+    private long failedGets = 0;
+    //whether the leader copies in memory are kept in order for the range scans, see Store
+    private final boolean ordered;
     private final Random loadBalancer = new Random();
     private final TimerScheduler<Command> timers;
+    private final HybridClock clock;
 
     private final HashMap<Integer, Request> requests = new HashMap<>();
+    //key counts received so far for each distribution request
+    private final HashMap<Integer, List<KeyCount>> keyCounts = new HashMap<>();
+    //hash keys of the nodes detected as unreachable by the failure detector of the cluster
+    private final Set<String> unreachable = new HashSet<>();
     private final PostOffice postOffice = new PostOffice(20);
+    private final HintedHandoff hints;
+    private final int hintsBatchSize;
+    private final int exportPageSize;
+    private final long exportPageBytes;
+    //while a batch is handled, the puts and the answers for the same node are gathered here and sent together
+    private HashMap<ActorRef<Command>, List<Put>> putBatches = null;
+    private HashMap<ActorRef<Command>, List<PutAnswer>> answerBatches = null;
+    //and the requests completed by the batch wait until its hints are on the disk, failing if they have kept one
+    private List<Request> acknowledgements = null;
+    private List<Request> hinted = null;
 
 
     //non final actor attributes
@@ -206,6 +952,25 @@ public class DataNode  {
     private DataNode(ActorContext<Command> context,int nReplicas, TimerScheduler<Command> timers, int messageRate) {
         this.context = context;
         this.nReplicas = nReplicas;
+        int quorum = context.getSystem().settings().config().getInt("akka.reads.quorum");
+        this.readQuorum = Math.max(1, Math.min(quorum, nReplicas + 1));
+        this.leaderlessWrites = context.getSystem().settings().config().getBoolean("akka.writes.leaderless");
+        this.coalesceReads = context.getSystem().settings().config().getBoolean("akka.reads.coalesce");
+        this.coalesceMaxAge = context.getSystem().settings().config().getDuration("akka.reads.coalesce-max-age").toNanos();
+        Config hotKeysConfig = context.getSystem().settings().config().getConfig("akka.hot-keys");
+        this.nearCacheTtl = hotKeysConfig.getDuration("near-cache-ttl").toNanos();
+        if (hotKeysConfig.getBoolean("enabled")){
+            this.hotKeys = new HotKeys(hotKeysConfig.getInt("sketch-depth"), hotKeysConfig.getInt("sketch-width"),
+                    hotKeysConfig.getInt("threshold"), hotKeysConfig.getInt("capacity"), hotKeysConfig.getInt("window"));
+            this.nearCache = new NearCache(nearCacheTtl);
+        } else {
+            this.hotKeys = null;
+            this.nearCache = null;
+        }
+        this.hintsBatchSize = context.getSystem().settings().config().getInt("akka.hints.batch-size");
+        this.exportPageSize = context.getSystem().settings().config().getInt("akka.export.page-size");
+        this.exportPageBytes = context.getSystem().settings().config().getBytes("akka.export.page-bytes");
+        this.ordered = context.getSystem().settings().config().getBoolean("akka.index.ordered");
         Cluster cluster = Cluster.get(context.getSystem());
         Optional<String> maybeAddress = cluster.selfMember().address().getHost();
         Optional<Integer> maybePort = cluster.selfMember().address().getPort();
@@ -218,11 +983,46 @@ public class DataNode  {
         }
         String hashKey = hashfunction(address,port);
         nodes.add(new NodeInfo(hashKey, context.getSelf()));
+        //the first 64 bits of the hash of this node break the ties among equal timestamps
+        this.clock = new HybridClock(Long.parseUnsignedLong(hashKey.substring(0, 16), 16));
+        File hintsDirectory = new File(context.getSystem().settings().config().getString("akka.hints.directory"));
+        long hintsRetryAfter = context.getSystem().settings().config().getDuration("akka.hints.retry-after").toMillis();
+        try {
+            this.hints = new HintedHandoff(new File(hintsDirectory, "hints-" + port + ".log"), hintsRetryAfter);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Config storeConfig = context.getSystem().settings().config().getConfig("akka.store");
+        File storeDirectory = new File(storeConfig.getString("directory"));
+        long memoryBudget = storeConfig.getBytes("memory-budget");
+        long segmentBytes = storeConfig.getBytes("segment-bytes");
+        int maxSegments = storeConfig.getInt("max-segments");
+        int bloomBitsPerKey = storeConfig.getInt("bloom-bits-per-key");
+        this.data = new Store("data-" + port, storeDirectory, memoryBudget / 2, segmentBytes, maxSegments, bloomBitsPerKey, ordered);
+        this.replicas = new Store("replicas-" + port, storeDirectory, memoryBudget / 2, segmentBytes, maxSegments, bloomBitsPerKey, false);
         this.messageRate = messageRate;
         this.nodeId = 0;
         this.ticket = 1;
         this.timers = timers;
         timers.startTimerWithFixedDelay(TIMER_KEY, Timeout.INSTANCE, Duration.ofMillis(1000));
+        Duration expiryTick = context.getSystem().settings().config().getDuration("akka.ttl.tick");
+        this.expiry = new ExpiryWheel(expiryTick.toMillis(), System.currentTimeMillis());
+        this.expiryBatchSize = context.getSystem().settings().config().getInt("akka.ttl.batch-size");
+        this.compressionThreshold = context.getSystem().settings().config().getBoolean("akka.compression.enabled")
+                ? (int) context.getSystem().settings().config().getBytes("akka.compression.threshold").longValue() : 0;
+        this.streamThreshold = context.getSystem().settings().config().getBoolean("akka.streaming.enabled")
+                ? context.getSystem().settings().config().getBytes("akka.streaming.threshold") : 0;
+        this.streamChunkSize = context.getSystem().settings().config().getBytes("akka.streaming.chunk-size").intValue();
+        this.materializer = Materializer.matFromSystem(context.getSystem());
+        Config erasureConfig = context.getSystem().settings().config().getConfig("akka.erasure");
+        this.erasure = erasureConfig.getBoolean("enabled") ? new ReedSolomon(erasureConfig.getInt("data-shards"), erasureConfig.getInt("parity-shards")) : null;
+        this.erasureThreshold = erasureConfig.getBytes("threshold").intValue();
+        this.erasureReadTimeout = erasureConfig.getDuration("read-timeout").toNanos();
+        Config changesConfig = context.getSystem().settings().config().getConfig("akka.changes");
+        //the id of the change log is the one of the node, and its start
+        this.changes = changesConfig.getBoolean("enabled") ? new ChangeLog(hashKey.substring(0, 8) + "-" + Long.toString(System.currentTimeMillis(), 36),
+                changesConfig.getInt("buffer-size"), materializer) : null;
+        timers.startTimerWithFixedDelay(EXPIRY_TIMER_KEY, ExpiryTick.INSTANCE, expiryTick);
     }
 
     //behaviour constructor
@@ -234,10 +1034,37 @@ public class DataNode  {
                         onMessage(PutAnswer.class, this::onPutAnswer).
                         onMessage(NodesUpdate.class, this:: onNodesUpdate).
                         onMessage(Put.class, this::onPut).
+                        onMessage(PutBatch.class, this::onPutBatch).
+                        onMessage(PutStream.class, this::onPutStream).
+                        onMessage(PutStreamFailed.class, this::onPutStreamFailed).
+                        onMessage(ShardPut.class, this::onShardPut).
+                        onMessage(ConditionalPut.class, this::onConditionalPut).
+                        onMessage(ConditionalPutAnswer.class, this::onConditionalPutAnswer).
+                        onMessage(UpdateRequest.class, this::onUpdateRequest).
+                        onMessage(Update.class, this::onUpdate).
+                        onMessage(UpdateAnswer.class, this::onUpdateAnswer).
+                        onMessage(Watch.class, this::onWatch).
+                        onMessage(GetShards.class, this::onGetShards).
+                        onMessage(ShardsAnswer.class, this::onShardsAnswer).
+                        onMessage(PutAnswerBatch.class, this::onPutAnswerBatch).
+                        onMessage(MultiPutRequest.class, this::onMultiPutRequest).
+                        onMessage(GetBatch.class, this::onGetBatch).
+                        onMessage(GetBatchAnswer.class, this::onGetBatchAnswer).
+                        onMessage(MultiGetRequest.class, this::onMultiGetRequest).
+                        onMessage(Handoff.class, this::onHandoff).
+                        onMessage(ReachabilityChanged.class, this::onReachabilityChanged).
                         onMessage(GetAllLocalRequest.class, this::onGetAllLocalRequest).
                         onMessage(GetNodesRequest.class,this::onGetNodesRequest).
+                        onMessage(GetDistributionRequest.class, this::onGetDistributionRequest).
+                        onMessage(GetMetrics.class, this::onGetMetrics).
+                        onMessage(GetHotKeys.class, this::onGetHotKeys).
+                        onMessage(Invalidate.class, this::onInvalidate).
+                        onMessage(ExportPage.class, this::onExportPage).
+                        onMessage(GetKeyCount.class, this::onGetKeyCount).
+                        onMessage(KeyCount.class, this::onKeyCount).
                         onMessage(Get.class,this::onGet).
                         onMessage(Timeout.class, this::onTimeout).
+                        onMessage(ExpiryTick.class, this::onExpiryTick).
                         build();
     }
 
@@ -247,9 +1074,8 @@ public class DataNode  {
 
 
     private Behavior<Command> onGetRequest(GetRequest message){
-        int nodePosition = message.key.hashCode() % nodes.size();
-        if(nodePosition < 0 ) nodePosition += nodes.size();
-        nodes.sort(Comparator.comparing(NodeInfo::getHashKey));
+        long token = KeyToken.of(message.key);
+        int nodePosition = getNodePosition(token);
         //checking whether the cluster is big enough
         List<NodeInfo> successors;
         try{
@@ -258,138 +1084,762 @@ public class DataNode  {
             postOffice.archive(message);
             return Behaviors.same();
         }
+        getRequests++;
+        int localCopy = getLocalCopy(nodePosition, successors);
+        boolean hot = hotKeys != null && hotKeys.record(message.key, token);
+        GetAnswer cached = hot ? nearCache.get(message.key) : null;
+        Request inflight = inflightGet(message.key);
+        if (readQuorum == 1 && localCopy >= 0){
+            //I return the value I've stored, even if null, and I specify if it's present in the answer message
+            localAnswer(message.key, ticket, localCopy, local -> answer(message.replyTo, message.correlationId, local));
+        }
+        else if (cached != null){
+            nearCacheHits++;
+            answer(message.replyTo, message.correlationId, new GetAnswer(cached.key, cached.value, cached.isPresent, ticket,
+                    cached.version, cached.writer, cached.successorId, cached.expiresAt));
+        }
+        else if (inflight != null){
+            //the same key is being read already: this request gets its answer instead of reading the copies again
+            inflight.addFollower(new Request(0, message.replyTo, ticket, message.correlationId));
+            coalescedGets++;
+        }
+        else {
+            List<Integer> selected = chooseCopies(nodePosition, successors);
+            for (int choice : selected){
+                ActorRef<Command> destination = choice == nReplicas ?
+                        nodes.get(nodePosition).getNode() :
+                        successors.get(choice).getNode();
+                postOffice.send(new Letter (destination, new Get(token, message.key, context.getSelf(), ticket, choice, hot)));
+            }
+            Request request = new Request(selected.size(), message.replyTo, ticket, message.correlationId);
+            request.setWatched(hot);
+            requests.put(ticket, request);
+            if (coalesceReads) inflightGets.put(message.key, request);
+        }
+        ticket++;
+        return Behaviors.same();
+    }
+
+    //reading the copies of all the keys, with one batch of gets for each node
+    private Behavior<Command> onMultiGetRequest(MultiGetRequest message){
+        //checking whether the cluster is big enough
+        if (nodes.size() < nReplicas + 1){
+            postOffice.archive(message);
+            return Behaviors.same();
+        }
+        getRequests += message.keys.size();
+        Request parent = new Request(message.keys.size(), message.replyTo, ticket, message.correlationId);
+        ticket++;
+        if (message.keys.isEmpty()){
+            answer(message.replyTo, message.correlationId, new MultiGetAnswer(parent.getAnswers(), parent.requestId));
+            return Behaviors.same();
+        }
+        HashMap<ActorRef<Command>, List<Get>> batches = new HashMap<>();
+        for (String key : message.keys){
+            long token = KeyToken.of(key);
+            int nodePosition = getNodePosition(token);
+            List<NodeInfo> successors = getAvailableSuccessors(nodePosition, nReplicas, nodes);
+            int localCopy = getLocalCopy(nodePosition, successors);
+            int requestId = ticket;
+            ticket++;
+            //the key is counted even if it is read locally, like in onGetRequest
+            boolean hot = hotKeys != null && hotKeys.record(key, token);
+            if (readQuorum == 1 && localCopy >= 0){
+                Request request = new Request(1, parent);
+                localAnswer(key, requestId, localCopy, local -> collect(requestId, request, local));
+                continue;
+            }
+            GetAnswer cached = hot ? nearCache.get(key) : null;
+            if (cached != null){
+                nearCacheHits++;
+                collect(requestId, new Request(1, parent), cached);
+                continue;
+            }
+            Request inflight = inflightGet(key);
+            if (inflight != null){
+                inflight.addFollower(new Request(0, parent));
+                coalescedGets++;
+                continue;
+            }
+            List<Integer> selected = chooseCopies(nodePosition, successors);
+            for (int choice : selected){
+                ActorRef<Command> destination = choice == nReplicas ?
+                        nodes.get(nodePosition).getNode() :
+                        successors.get(choice).getNode();
+                batches.computeIfAbsent(destination, k -> new ArrayList<>())
+                        .add(new Get(token, key, context.getSelf(), requestId, choice, hot));
+            }
+            Request request = new Request(selected.size(), parent);
+            request.setWatched(hot);
+            requests.put(requestId, request);
+            if (coalesceReads) inflightGets.put(key, request);
+        }
+        batches.forEach((destination, gets) ->
+                postOffice.send(new Letter(destination, gets.size() == 1 ? gets.get(0) : new GetBatch(gets))));
+        return Behaviors.same();
+    }
+
+    private Behavior<Command> onGet(Get message){
+        GetAnswer answer = serve(message);
+        if (answer != null) postOffice.send(new Letter(message.replyTo, answer));
+        return Behaviors.same();
+    }
+
+    //answering all the gets served here with one message for each requester
+    private Behavior<Command> onGetBatch(GetBatch message){
+        HashMap<ActorRef<Command>, List<GetAnswer>> answers = new HashMap<>();
+        for (Get get : message.gets){
+            GetAnswer answer = serve(get);
+            if (answer != null) answers.computeIfAbsent(get.replyTo, k -> new ArrayList<>()).add(answer);
+        }
+        answers.forEach((requester, batch) ->
+                postOffice.send(new Letter(requester, batch.size() == 1 ? batch.get(0) : new GetBatchAnswer(batch))));
+        return Behaviors.same();
+    }
+
+    //the answer to the get, or null if it has been redirected or postponed
+    private GetAnswer serve(Get message){
+        //check if the topology has changed in the meantime
+        int nodePosition = getNodePosition(message.token);
+        //checking whether the cluster is big enough
+        List<NodeInfo> successors;
+        try{
+            successors = getSuccessorNodes(nodePosition, nReplicas, nodes);
+        }catch (ClusterException e){
+            postOffice.archive(message);
+            return null;
+        }
         List<String> successorsNames = successors
                 .stream()
                 .map(NodeInfo::getHashKey)
                 .collect(Collectors.toList());
-        if (nodePosition == this.nodeId || successorsNames.contains(hashfunction(address, port))){
-            //I return the value I've stored, even if null, and I specify if it's present in the answer message
-            Value value = this.data.get(message.key);
-            boolean isPresent = value != null;
-            postOffice.send(new Letter(message.replyTo, new GetAnswer(message.key,isPresent? value.value : null , isPresent,ticket) ));
+        if (message.successorID == nReplicas && nodePosition!= this.nodeId){
+            ActorRef<Command> leader = nodes.get(nodePosition).getNode();
+            postOffice.send(new Letter(leader, new Get(message, message.successorID)));
+            return null;
         }
-        else {
-            //I contact a random node which is supposed to keep a replica
-            int choice = loadBalancer.nextInt(nReplicas +1);
-            if (choice == nReplicas){
-                // I contact the leader
-                ActorRef<Command> leader = nodes.get(nodePosition).getNode();
-                postOffice.send(new Letter(leader,new Get(message.key, context.getSelf(), ticket, choice) ));
+        if( message.successorID != nReplicas && !(successorsNames.get(message.successorID).equals(hashfunction(address,port)))) {
+            // I redirect the request to the real destination
+            ActorRef<Command> destination = successors
+                    .get(message.successorID)
+                    .getNode();
+            postOffice.send(new Letter(destination, new Get(message, message.successorID)));
+            return null;
+        }
+        //if no changes, reply
+        if (message.watch) watchers.computeIfAbsent(message.key(), k -> new Watchers()).add(message.replyTo);
+        Shard coded = codedCopy(message.key(), message.successorID);
+        if (coded != null){
+            rebuild(message.key(), coded, message.requestId, message.successorID, answer -> postOffice.send(new Letter(message.replyTo, answer)));
+            return null;
+        }
+        return localAnswer(message.key(), message.requestId, message.successorID);
+    }
+
+    private Behavior<Command> onGetAnswer(GetAnswer message){
+        if (requests.containsKey(message.requestId)){
+            collect(message.requestId, requests.remove(message.requestId), message);
+        }
+        //otherwise just drop the message
+        return Behaviors.same();
+    }
+
+    private Behavior<Command> onGetBatchAnswer(GetBatchAnswer message){
+        for (GetAnswer answer : message.answers){
+            onGetAnswer(answer);
+        }
+        return Behaviors.same();
+    }
+
+    //adding the answer to the request: once all the copies have answered, the newest version is the answer to the
+    //requester, or to the multi get the request is part of
+    private void collect(int requestId, Request request, GetAnswer answer){
+        request.setCounter(request.getCounter()-1);
+        request.addAnswer(answer);
+        if (request.getCounter() > 0){
+            requests.put(requestId, request);
+            return;
+        }
+        GetAnswer newest = request.getNewest();
+        inflightGets.remove(newest.key, request);
+        //the copies which have been read with watch invalidate the cached answer when the key is written
+        if (request.isWatched() && nearCache != null && newest.error == null) nearCache.put(newest.key, newest);
+        complete(request, newest);
+        for (Request follower : request.getFollowers()){
+            complete(follower, newest);
+        }
+        //a delete is repaired like a value
+        if (newest.version != Value.UNASSIGNED) readRepair(newest, request.getAnswers());
+    }
+
+    //answering the requester with the newest copy, or the multi get the request is part of once all its keys are read
+    private void complete(Request request, GetAnswer newest){
+        GetAnswer result = new GetAnswer(newest.key, newest.value, newest.isPresent, request.requestId, newest.version, newest.writer,
+                newest.successorId, newest.expiresAt, newest.error);
+        if (request.parent == null){
+            answer(request.requester, request.correlationId, result);
+            return;
+        }
+        Request parent = request.parent;
+        parent.addAnswer(result);
+        parent.setCounter(parent.getCounter()-1);
+        if (parent.getCounter() == 0){
+            answer(parent.requester, parent.correlationId, new MultiGetAnswer(parent.getAnswers(), parent.requestId));
+        }
+    }
+
+    //the read of the key in progress which a new GET can wait for, null if there is none or it may have been lost
+    private Request inflightGet(String key){
+        if (!coalesceReads) return null;
+        Request inflight = inflightGets.get(key);
+        if (inflight == null || System.nanoTime() - inflight.startedAt >= coalesceMaxAge) return null;
+        return inflight;
+    }
+
+    //pushing the newest version to the nodes which answered with an older one or without the value
+    private void readRepair(GetAnswer newest, List<GetAnswer> answers){
+        long token = KeyToken.of(newest.key);
+        int nodePosition = getNodePosition(token);
+        List<NodeInfo> successors;
+        try{
+            successors = getSuccessorNodes(nodePosition, nReplicas, nodes);
+        }catch (ClusterException e){
+            return;
+        }
+        for (GetAnswer answer : answers){
+            if (HybridClock.compare(answer.version, answer.writer, newest.version, newest.writer) >= 0) continue;
+            context.getLog().info("repairing a stale copy of key-data " + newest.key + " on successor " + answer.successorId + "...");
+            boolean isReplica = answer.successorId != nReplicas;
+            ActorRef<Command> destination = isReplica ?
+                    successors.get(answer.successorId).getNode() :
+                    nodes.get(nodePosition).getNode();
+            //the acknowledgement is not tracked: nobody is waiting for a repair
+            sendPut(destination, new Put(token, newest.key, compress(new Value(newest.value, newest.version, newest.writer, newest.expiresAt)), context.getSelf(), isReplica, ticket, answer.successorId));
+            ticket++;
+        }
+    }
+
+    //the copy of the key held by this node ( nReplicas for the leader one), -1 if it holds none
+    private int getLocalCopy(int nodePosition, List<NodeInfo> successors){
+        if (nodePosition == this.nodeId) return nReplicas;
+        for (int i = 0; i < successors.size(); i++){
+            if (successors.get(i).getNode().equals(context.getSelf())) return i;
+        }
+        return -1;
+    }
+
+    //readQuorum distinct random reachable copies among the leader ( choice nReplicas) and its successors
+    private List<Integer> chooseCopies(int nodePosition, List<NodeInfo> successors){
+        List<Integer> choices = new ArrayList<>();
+        for (int i = 0; i <= nReplicas; i++){
+            if (isReachable(i == nReplicas ? nodes.get(nodePosition) : successors.get(i))) choices.add(i);
+        }
+        //if none is reachable I try anyway, the failure detector may be wrong
+        if (choices.isEmpty()) for (int i = 0; i <= nReplicas; i++) choices.add(i);
+        Collections.shuffle(choices, loadBalancer);
+        return choices.subList(0, Math.min(readQuorum, choices.size()));
+    }
+
+    //answering with the local copy, once it has been rebuilt from its shards if it is erasure coded
+    private void localAnswer(String key, int requestId, int successorId, Consumer<GetAnswer> reply){
+        Shard coded = codedCopy(key, successorId);
+        if (coded != null) rebuild(key, coded, requestId, successorId, reply);
+        else reply.accept(localAnswer(key, requestId, successorId));
+    }
+
+    //answering with the leader version if the requested copy is the leader one, with the replica otherwise.
+    //A deleted key is not present, but its answer has the version of the delete to win over the older copies.
+    //A copy which cannot be read from disk is answered as a failed read, which the other copies win over
+    private GetAnswer localAnswer(String key, int requestId, int successorId){
+        Value value;
+        try{
+            value = live(successorId == nReplicas ? this.data : this.replicas, key);
+        }catch (IOException e){
+            failedGets++;
+            context.getLog().error("cannot read the copy " + successorId + " of key-data " + key, e);
+            return new GetAnswer(key, null, false, requestId, Value.UNASSIGNED, 0, successorId, Value.NEVER, GetAnswer.UNREADABLE);
+        }
+        boolean isPresent = value != null && !value.isDeleted();
+        return new GetAnswer(key, isPresent? value.text() : null, isPresent, requestId, value != null? value.version : Value.UNASSIGNED,
+                value != null? value.writer : 0, successorId, value != null? value.expiresAt : Value.NEVER);
+    }
+
+    //the copy of the key, null if it is missing or expired: an expired copy is removed as soon as it is read
+    private Value live(Store map, String key) throws IOException{
+        Value value = map.get(key);
+        if (value == null || !value.isExpired(System.currentTimeMillis())) return value;
+        remove(map, key);
+        return null;
+    }
+
+    private void remove(Store map, String key){
+        Value value = map.peek(key);
+        map.remove(key);
+        if (value != null && value.isDeleted()) sweptTombstones++;
+        else expiredKeys++;
+    }
+
+
+    /*---------------------------------------------------------------
+    ERASURE CODING
+     */
+
+    //whether the value is large enough to be erasure coded instead of replicated
+    private boolean isLarge(Value value){
+        if (erasure == null || value.isDeleted()) return false;
+        return (value.compressed != null ? value.compressed.length : value.value.length()) >= erasureThreshold;
+    }
+
+    //the holder of each shard: the leader holds the first one, the nodes after it in the ring the next ones.
+    //In a cluster smaller than the number of shards a node holds more than one
+    private List<NodeInfo> shardHolders(int nodePosition){
+        List<NodeInfo> holders = new ArrayList<>();
+        for (int i = 0; i < erasure.getDataShards() + erasure.getParityShards(); i++){
+            holders.add(nodes.get((nodePosition + i) % nodes.size()));
+        }
+        return holders;
+    }
+
+    //splitting the value into shards for their holders, the request is answered when the reachable ones have
+    //acknowledged them. Returns false if less than dataShards holders are reachable: the value is replicated instead
+    private boolean writeShards(long token, String key, Value value, int nodePosition, Request request){
+        List<NodeInfo> holders = shardHolders(nodePosition);
+        if (holders.stream().filter(this::isReachable).count() < erasure.getDataShards()) return false;
+        stamp(key, value);
+        byte[] bytes = value.compressed != null ? value.compressed : value.value.getBytes(StandardCharsets.UTF_8);
+        byte[][] coded = erasure.encode(bytes);
+        int pending = 0;
+        for (int i = 0; i < holders.size(); i++){
+            Shard shard = new Shard(i, erasure.getDataShards(), erasure.getParityShards(), bytes.length, value.compressed != null,
+                    coded[i], value.version, value.writer, value.expiresAt);
+            NodeInfo holder = holders.get(i);
+            if (holder.getNode().equals(context.getSelf())){
+                storeShard(key, shard, true);
             }
-            else{
-                ActorRef<Command> destination = successors
-                        .get(choice)
-                        .getNode();
-                postOffice.send(new Letter (destination, new Get(message.key, context.getSelf(), ticket,choice)));
+            else if (isReachable(holder)){
+                postOffice.send(new Letter(holder.getNode(), new ShardPut(token, key, shard, context.getSelf(), ticket, true)));
+                pending++;
+            }
+            //the shard of an unreachable holder is lost: the value survives with one failure less
+        }
+        codedValues++;
+        request.setCounter(pending);
+        reply(request);
+        return true;
+    }
+
+    private Behavior<Command> onShardPut(ShardPut message){
+        invalidateLocal(message.key, message.shard.version, message.shard.writer);
+        storeShard(message.key, message.shard, message.isWrite);
+        sendPutAnswer(message.replyTo, new PutAnswer(true, message.requestId));
+        return Behaviors.same();
+    }
+
+    //keeping the shard unless a newer version of the key is stored here: the older versions, coded or not, are dropped
+    private void storeShard(String key, Shard shard, boolean write){
+        Shard held = heldShard(key);
+        if (held != null && HybridClock.compare(held.version, held.writer, shard.version, shard.writer) > 0) return;
+        Value leader = this.data.peek(key);
+        Value replica = this.replicas.peek(key);
+        if ((leader != null && !shard.isNewerThan(leader)) || (replica != null && !shard.isNewerThan(replica))) return;
+        if (held == null || !held.sameVersion(shard.version, shard.writer)){
+            shards.put(key, new Shard[shard.dataShards + shard.parityShards]);
+        }
+        shards.get(key)[shard.index] = shard;
+        //the first shard is held by the leader
+        if (write && shard.index == 0 && changes != null) changes.record(key, null, shard.version, shard.writer);
+        if (leader != null) this.data.remove(key);
+        if (replica != null) this.replicas.remove(key);
+        invalidateWatchers(key, new Value(null, shard.version, shard.writer));
+        if (shard.expiresAt != Value.NEVER) expiry.schedule(key, shard.expiresAt);
+        context.getLog().info("just inserted shard " + shard.index + " of key-data " + key + "...");
+    }
+
+    //a shard of the key held here, null if there is none or they have expired
+    private Shard heldShard(String key){
+        Shard[] held = shards.get(key);
+        if (held == null) return null;
+        for (Shard shard : held){
+            if (shard == null) continue;
+            if (!shard.isExpired(System.currentTimeMillis())) return shard;
+            shards.remove(key);
+            expiredKeys++;
+            return null;
+        }
+        return null;
+    }
+
+    //a shard of the key if the value is erasure coded and newer than the requested copy held here, null otherwise
+    private Shard codedCopy(String key, int successorId){
+        Shard coded = heldShard(key);
+        if (coded == null) return null;
+        Value copy = (successorId == nReplicas ? this.data : this.replicas).peek(key);
+        return copy == null || coded.isNewerThan(copy) ? coded : null;
+    }
+
+    //collecting the shards of the version of the coded shard from its holders, the reply gets the value once any
+    //dataShards of them have arrived
+    private void rebuild(String key, Shard coded, int requestId, int successorId, Consumer<GetAnswer> reply){
+        Rebuild rebuild = new Rebuild(key, coded, requestId, successorId, reply);
+        for (Shard shard : shards.get(key)) if (shard != null) rebuild.add(shard);
+        if (!rebuild.isComplete()){
+            Set<ActorRef<Command>> holders = new HashSet<>();
+            for (NodeInfo holder : shardHolders(getNodePosition(KeyToken.of(key)))){
+                if (isReachable(holder) && !holder.getNode().equals(context.getSelf())) holders.add(holder.getNode());
+            }
+            for (ActorRef<Command> holder : holders){
+                postOffice.send(new Letter(holder, new GetShards(key, context.getSelf(), ticket)));
             }
-            requests.put(ticket, new Request(1, message.replyTo));
+            rebuild.pending = holders.size();
+            if (rebuild.pending > 0){
+                rebuilds.put(ticket++, rebuild);
+                return;
+            }
+        }
+        finish(rebuild);
+    }
+
+    private Behavior<Command> onGetShards(GetShards message){
+        List<Shard> held = new ArrayList<>();
+        if (heldShard(message.key) != null){
+            for (Shard shard : shards.get(message.key)) if (shard != null) held.add(shard);
+        }
+        postOffice.send(new Letter(message.replyTo, new ShardsAnswer(message.requestId, held)));
+        return Behaviors.same();
+    }
+
+    private Behavior<Command> onShardsAnswer(ShardsAnswer message){
+        Rebuild rebuild = rebuilds.get(message.requestId);
+        if (rebuild == null) return Behaviors.same();
+        for (Shard shard : message.shards) rebuild.add(shard);
+        rebuild.pending--;
+        if (rebuild.isComplete() || rebuild.pending == 0){
+            rebuilds.remove(message.requestId);
+            finish(rebuild);
+        }
+        return Behaviors.same();
+    }
+
+    //answering with the rebuilt value, or with the copy held here if too many shards are missing
+    private void finish(Rebuild rebuild){
+        Shard coded = rebuild.coded;
+        if (!rebuild.isComplete()){
+            failedRebuilds++;
+            context.getLog().warn("only " + rebuild.found + " shards of key-data " + rebuild.key + " of the " + coded.dataShards + " needed");
+            rebuild.reply.accept(localAnswer(rebuild.key, rebuild.requestId, rebuild.successorId));
+            return;
+        }
+        ReedSolomon code = erasure != null && erasure.getDataShards() == coded.dataShards && erasure.getParityShards() == coded.parityShards
+                ? erasure : new ReedSolomon(coded.dataShards, coded.parityShards);
+        byte[] bytes = code.decode(rebuild.shards, coded.length);
+        String value = coded.compressed ? Value.compressed(bytes, coded.version, coded.writer, coded.expiresAt).text()
+                : new String(bytes, StandardCharsets.UTF_8);
+        rebuiltValues++;
+        rebuild.reply.accept(new GetAnswer(rebuild.key, value, true, rebuild.requestId, coded.version, coded.writer,
+                rebuild.successorId, coded.expiresAt));
+    }
+
+    //giving up the rebuilds whose holders have not answered in time
+    private void expireRebuilds(){
+        long now = System.nanoTime();
+        Iterator<Rebuild> iterator = rebuilds.values().iterator();
+        while (iterator.hasNext()){
+            Rebuild rebuild = iterator.next();
+            if (now - rebuild.startedAt < erasureReadTimeout) continue;
+            iterator.remove();
+            finish(rebuild);
+        }
+    }
+
+    //moving the shards whose holder has changed with the topology
+    private void reassignShards(){
+        if (erasure == null || shards.isEmpty()) return;
+        Iterator<Map.Entry<String, Shard[]>> iterator = shards.entrySet().iterator();
+        while (iterator.hasNext()){
+            Map.Entry<String, Shard[]> entry = iterator.next();
+            long token = KeyToken.of(entry.getKey());
+            int nodePosition = getNodePosition(token);
+            Shard[] held = entry.getValue();
+            boolean kept = false;
+            for (int i = 0; i < held.length; i++){
+                if (held[i] == null) continue;
+                NodeInfo holder = nodes.get((nodePosition + i) % nodes.size());
+                if (holder.getNode().equals(context.getSelf())){
+                    kept = true;
+                    continue;
+                }
+                //the acknowledgement is not tracked, like the reassignment of the copies
+                postOffice.send(new Letter(holder.getNode(), new ShardPut(token, entry.getKey(), held[i], context.getSelf(), ticket++, false)));
+                held[i] = null;
+            }
+            if (!kept) iterator.remove();
+        }
+    }
+
+    /*---------------------------------------------------------------
+    PUT BEHAVIOUR
+     */
+
+    private Behavior<Command> onPutRequest(PutRequest message){
+        invalidateLocal(message.key, Value.UNASSIGNED, 0);
+        if (message.expectedVersion != PutRequest.ANY_VERSION){
+            conditionalPut(message);
+            return Behaviors.same();
+        }
+        Value value = compress(message.value);
+        long token = KeyToken.of(message.key);
+        int nodePosition = getNodePosition(token);
+        //if the cluster is not big enough, the write is accepted anyway and hinted for the missing successors
+        List<NodeInfo> successors = getAvailableSuccessors(nodePosition, nReplicas, nodes);
+        NodeInfo leader = getActingLeader(nodePosition, successors);
+        if (isLarge(value) && writeShards(token, message.key, value, nodePosition, new Request(0, message.replyTo, ticket, message.correlationId))){
+            //the value is erasure coded: I write its shards directly, like a leaderless write
+        }
+        else if (leaderlessWrites || leader.getNode().equals(context.getSelf())){
+            //I'm the leader ( or it is unreachable and I'm its first reachable successor), or writes are leaderless:
+            //I stamp the value myself and I write it directly to all its copies
+            stamp(message.key, value);
+            writeCopies(token, message.key, value, nodePosition, successors, new Request(0, message.replyTo, ticket, message.correlationId), true);
+        }else{
+            //I send the data to the leader of that data, and wait for a reply
+            sendPut(leader.getNode(), new Put(token, message.key, value, context.getSelf(),false, ticket, nReplicas, true));
+            Request request = new Request(1, message.replyTo, ticket, message.correlationId);
+            requests.put(ticket, request);
+        }
+        ticket++;
+        return Behaviors.same();
+    }
+
+    //a conditional put is checked and written by the leader of the key, even if writes are leaderless: it is the
+    //only node which sees all the writes of the key in order
+    private void conditionalPut(PutRequest message){
+        long token = KeyToken.of(message.key);
+        int nodePosition = getNodePosition(token);
+        List<NodeInfo> successors = getAvailableSuccessors(nodePosition, nReplicas, nodes);
+        NodeInfo leader = getActingLeader(nodePosition, successors);
+        Request request = new Request(leader.getNode().equals(context.getSelf()) ? 0 : 1, message.replyTo, ticket, message.correlationId);
+        if (request.getCounter() == 0){
+            writeIfVersion(token, message.key, message.value, message.expectedVersion, message.expectedWriter, request);
+        }
+        else{
+            postOffice.send(new Letter(leader.getNode(), new ConditionalPut(token, message.key, message.value, message.expectedVersion,
+                    message.expectedWriter, context.getSelf(), ticket)));
+            requests.put(ticket, request);
+        }
+        ticket++;
+    }
+
+    private Behavior<Command> onConditionalPut(ConditionalPut message){
+        invalidateLocal(message.key, Value.UNASSIGNED, 0);
+        //the topology may have changed in the meantime: the check is done here anyway, by the node the coordinator
+        //thought to be the leader
+        writeIfVersion(message.token, message.key, message.value, message.expectedVersion, message.expectedWriter,
+                new Request(0, message.replyTo, message.requestId));
+        return Behaviors.same();
+    }
+
+    private Behavior<Command> onConditionalPutAnswer(ConditionalPutAnswer message){
+        Request request = requests.remove(message.requestId);
+        if (request == null) return Behaviors.same();
+        answer(request.requester, request.correlationId, new ConditionalPutAnswer(message.success, request.requestId, message.version, message.writer));
+        return Behaviors.same();
+    }
+
+    //writing the value if the newest copy held here has the expected version, answering with the current version
+    //otherwise. The value is written like any other, and the request answered when its copies are acknowledged
+    private void writeIfVersion(long token, String key, Value written, long expectedVersion, long expectedWriter, Request request){
+        Value copy;
+        try{
+            copy = newestCopy(key);
+        }catch (IOException e){
+            //the version cannot be checked: the write fails like a put
+            context.getLog().error("cannot read the copies of key-data " + key + " to check their version", e);
+            request.fail();
+            acknowledge(request);
+            return;
+        }
+        long version = copy != null ? copy.version : Value.UNASSIGNED;
+        long writer = copy != null ? copy.writer : 0;
+        boolean deleted = copy != null && copy.isDeleted();
+        Shard coded = heldShard(key);
+        if (coded != null && HybridClock.compare(coded.version, coded.writer, version, writer) > 0){
+            version = coded.version;
+            writer = coded.writer;
+            deleted = false;
+        }
+        //a deleted key is expected as missing, or with the version of the delete
+        boolean expected = expectedVersion == Value.UNASSIGNED ? version == Value.UNASSIGNED || deleted
+                : version == expectedVersion && writer == expectedWriter;
+        if (!expected){
+            conflicts++;
+            answer(request.requester, request.correlationId, new ConditionalPutAnswer(false, request.requestId, version, writer));
+            return;
+        }
+        conditionalPuts++;
+        Value value = compress(written);
+        request.setWritten(value, false);
+        int nodePosition = getNodePosition(token);
+        if (isLarge(value) && writeShards(token, key, value, nodePosition, request)) return;
+        stamp(key, value);
+        writeCopies(token, key, value, nodePosition, getAvailableSuccessors(nodePosition, nReplicas, nodes), request, true);
+    }
+
+    //the newest of the copies of the key held here, null if there is none
+    private Value newestCopy(String key) throws IOException{
+        return newest(live(this.data, key), live(this.replicas, key));
+    }
 
+    //an update is applied by the leader of the key, like a conditional put
+    private Behavior<Command> onUpdateRequest(UpdateRequest message){
+        invalidateLocal(message.key, Value.UNASSIGNED, 0);
+        long token = KeyToken.of(message.key);
+        int nodePosition = getNodePosition(token);
+        List<NodeInfo> successors = getAvailableSuccessors(nodePosition, nReplicas, nodes);
+        NodeInfo leader = getActingLeader(nodePosition, successors);
+        Request request = new Request(leader.getNode().equals(context.getSelf()) ? 0 : 1, message.replyTo, ticket, message.correlationId);
+        if (request.getCounter() == 0){
+            update(token, message.key, message.operation, message.by, message.operand, request);
+        }
+        else{
+            postOffice.send(new Letter(leader.getNode(), new Update(token, message.key, message.operation, message.by, message.operand,
+                    context.getSelf(), ticket)));
+            requests.put(ticket, request);
         }
         ticket++;
         return Behaviors.same();
     }
 
-    private Behavior<Command> onGet(Get message){
-        //check if the topology has changed in the meantime
-        int nodePosition = message.key.hashCode() % nodes.size();
-        if(nodePosition < 0 ) nodePosition += nodes.size();
-        nodes.sort(Comparator.comparing(NodeInfo::getHashKey));
-        //checking whether the cluster is big enough
-        List<NodeInfo> successors;
+    private Behavior<Command> onUpdate(Update message){
+        invalidateLocal(message.key, Value.UNASSIGNED, 0);
+        update(message.token, message.key, message.operation, message.by, message.operand, new Request(0, message.replyTo, message.requestId));
+        return Behaviors.same();
+    }
+
+    private Behavior<Command> onUpdateAnswer(UpdateAnswer message){
+        Request request = requests.remove(message.requestId);
+        if (request == null) return Behaviors.same();
+        answer(request.requester, request.correlationId, new UpdateAnswer(message.success, request.requestId, message.value,
+                message.version, message.writer, message.error));
+        return Behaviors.same();
+    }
+
+    //computing the new value from the newest copy held here, and writing it to all the copies: a missing or deleted
+    //key counts as 0, or as the empty string. The new value keeps the expiry of the current one
+    private void update(long token, String key, Operation operation, long by, String operand, Request request){
+        Value current;
         try{
-            successors = getSuccessorNodes(nodePosition, nReplicas, nodes);
-        }catch (ClusterException e){
-            postOffice.archive(message);
-            return Behaviors.same();
+            current = newestCopy(key);
+        }catch (IOException e){
+            context.getLog().error("cannot read the copies of key-data " + key + " to update them", e);
+            answer(request.requester, request.correlationId, new UpdateAnswer(false, request.requestId, null, Value.UNASSIGNED, 0,
+                    GetAnswer.UNREADABLE));
+            return;
         }
-        List<String> successorsNames = successors
-                .stream()
-                .map(NodeInfo::getHashKey)
-                .collect(Collectors.toList());
-        if (message.successorID == nReplicas && nodePosition!= this.nodeId){
-            ActorRef<Command> leader = nodes.get(nodePosition).getNode();
-            postOffice.send(new Letter(leader, new Get(message.key, message.replyTo, message.requestId, message.successorID)));
-            return Behaviors.same();
+        Shard coded = heldShard(key);
+        if (coded != null && (current == null || coded.isNewerThan(current))){
+            answer(request.requester, request.correlationId, new UpdateAnswer(false, request.requestId, null, coded.version, coded.writer,
+                    "the value is erasure coded"));
+            return;
         }
-        if( !(successorsNames.get(message.successorID).equals(hashfunction(address,port)))) {
-            // I redirect the request to the real destination
-            ActorRef<Command> destination = successors
-                    .get(message.successorID)
-                    .getNode();
-            postOffice.send(new Letter(destination, new Get(message.key, message.replyTo, message.requestId, message.successorID)));
-            return Behaviors.same();
+        if (current != null && current.isDeleted()) current = null;
+        String text = current == null ? null : current.text();
+        String updated;
+        if (operation == Operation.APPEND){
+            updated = text == null ? operand : text + operand;
         }
-        //if no changes, reply
-        Value value = this.data.get(message.key);
-        boolean isPresent = value != null;
-        postOffice.send(new Letter(message.replyTo, new GetAnswer(message.key, isPresent? value.value : null, isPresent,message.requestId)));
-        return Behaviors.same();
-    }
-
-    private Behavior<Command> onGetAnswer(GetAnswer message){
-        if (requests.containsKey(message.requestId)){
-            Request request = requests.remove(message.requestId);
-            request.setCounter(request.getCounter()-1);
-            if (request.getCounter() == 0) {
-                postOffice.send(new Letter(request.requester, new GetAnswer(message.key, message.value,message.isPresent, message.requestId)));
+        else{
+            long number;
+            try{
+                number = text == null ? 0 : Long.parseLong(text.trim());
+            }catch (NumberFormatException e){
+                answer(request.requester, request.correlationId, new UpdateAnswer(false, request.requestId, null, current.version,
+                        current.writer, "the value is not an integer"));
+                return;
             }
-            else{
-                requests.put(message.requestId, request);
+            try{
+                updated = Long.toString(operation == Operation.INCR ? Math.addExact(number, by) : Math.subtractExact(number, by));
+            }catch (ArithmeticException e){
+                answer(request.requester, request.correlationId, new UpdateAnswer(false, request.requestId, null,
+                        current == null ? Value.UNASSIGNED : current.version, current == null ? 0 : current.writer, "the result overflows a long"));
+                return;
             }
         }
-        //otherwise just drop the message
-        return Behaviors.same();
+        updates++;
+        Value value = compress(new Value(updated, current == null ? Value.NEVER : current.expiresAt));
+        request.setWritten(value, true);
+        stamp(key, value);
+        int nodePosition = getNodePosition(token);
+        //the value is replicated even if it is large, so that the next update finds it here
+        writeCopies(token, key, value, nodePosition, getAvailableSuccessors(nodePosition, nReplicas, nodes), request, true);
     }
 
+    //a resumed watch starts after the last change received from this change log, or with all the buffered changes
+    //if none has been received from it: the node has joined or restarted since
+    private Behavior<Command> onWatch(Watch message){
+        if (changes == null){
+            postOffice.send(new Letter(message.replyTo, new WatchAnswer(Source.<Change>empty().runWith(StreamRefs.sourceRef(), materializer), null, 0)));
+            return Behaviors.same();
+        }
+        long fromSequence = message.positions == null ? changes.sequenceAfter(message.fromVersion)
+                : message.positions.getOrDefault(changes.getId(), 0L);
+        SourceRef<Change> ref = changes.watch(message.prefix, fromSequence).runWith(StreamRefs.sourceRef(), materializer);
+        postOffice.send(new Letter(message.replyTo, new WatchAnswer(ref, changes.getId(), fromSequence)));
+        return Behaviors.same();
+    }
 
-    /*---------------------------------------------------------------
-    PUT BEHAVIOUR
-     */
+    //the value as it is stored and replicated, compressed if it is large enough: it is decompressed only when read
+    private Value compress(Value value){
+        Value compressed = value.compress(compressionThreshold);
+        if (compressed != value){
+            compressedValues++;
+            compressedSavedBytes += value.size() - compressed.size();
+        }
+        return compressed;
+    }
 
-    private Behavior<Command> onPutRequest(PutRequest message){
-        int nodePosition = message.key.hashCode() % nodes.size();
-        if(nodePosition < 0 ) nodePosition += nodes.size();
-        nodes.sort(Comparator.comparing(NodeInfo::getHashKey));
-        //checking whether the cluster is big enough
-        List<NodeInfo> successors;
-        try{
-            successors = getSuccessorNodes(nodePosition, nReplicas, nodes);
-        }catch (ClusterException e){
-            postOffice.archive(message);
+    //writing all the entries, with one batch of puts for each node
+    private Behavior<Command> onMultiPutRequest(MultiPutRequest message){
+        Request parent = new Request(message.entries.size(), message.replyTo, ticket, message.correlationId);
+        ticket++;
+        if (message.entries.isEmpty()){
+            answer(message.replyTo, message.correlationId, new PutAnswer(true, parent.requestId));
             return Behaviors.same();
         }
-        if (nodePosition == this.nodeId){
-            //I'm the leader, so I add the value to my data
-            if (message.value.version == -1){
-                int version = 0;
-                if (this.data.containsKey(message.key)) version = this.data.get(message.key).version +1;
-                message.value.version = version;
+        beginBatch();
+        message.entries.forEach((key, entry) -> {
+            Value value = compress(entry);
+            invalidateLocal(key, value.version, value.writer);
+            long token = KeyToken.of(key);
+            int nodePosition = getNodePosition(token);
+            List<NodeInfo> successors = getAvailableSuccessors(nodePosition, nReplicas, nodes);
+            NodeInfo leader = getActingLeader(nodePosition, successors);
+            if (isLarge(value) && writeShards(token, key, value, nodePosition, new Request(0, parent))){
+                //erasure coded
             }
-            this.data.put(message.key,message.value);
-            context.getLog().info("just inserted a leader version of key-data "+ message.key + " " + message.value.value +  " ...");
-            for (int i = 0; i< nReplicas; i++){
-                ActorRef<Command> successor = successors.get(i).getNode();
-                postOffice.send(new Letter (successor,new Put(message.key,message.value, context.getSelf(), true, ticket,i)));
+            else if (leaderlessWrites || leader.getNode().equals(context.getSelf())){
+                stamp(key, value);
+                writeCopies(token, key, value, nodePosition, successors, new Request(0, parent), true);
             }
-            Request request = new Request(nReplicas, message.replyTo);
-            requests.put(ticket, request);
-        }else{
-            //I send the data to the leader of that data, and wait for a reply
-            ActorRef<Command> leader = nodes.get(nodePosition).getNode();
-            postOffice.send(new Letter(leader,new Put(message.key,message.value, context.getSelf(),false, ticket, nodes.size())));
-            Request request = new Request(1, message.replyTo);
-            requests.put(ticket, request);
-        }
-        ticket++;
+            else{
+                sendPut(leader.getNode(), new Put(token, key, value, context.getSelf(), false, ticket, nReplicas, true));
+                requests.put(ticket, new Request(1, parent));
+            }
+            ticket++;
+        });
+        flushBatch();
         return Behaviors.same();
     }
 
     private Behavior<Command> onPutAnswer(PutAnswer message){
+        if (hints.acknowledge(message.requestId, message.success)){
+            return Behaviors.same();
+        }
         if (requests.containsKey(message.requestId)){
             Request request = requests.remove(message.requestId);
+            if (!message.success) request.fail();
             request.setCounter(request.getCounter()-1);
             if (request.getCounter() == 0){
-                postOffice.send( new Letter(request.requester,new PutAnswer(true, message.requestId) ));
+                acknowledge(request);
             }
             else{
                 requests.put(message.requestId, request);
@@ -400,79 +1850,320 @@ public class DataNode  {
 
     private Behavior<Command> onPut(Put message){
         //recomputing the leader in case the topology has changed in the meantime
-        int nodePosition = message.key.hashCode() % nodes.size();
-        if(nodePosition < 0 ) nodePosition += nodes.size();
-        nodes.sort(Comparator.comparing(NodeInfo::getHashKey));
-        //checking whether the cluster is big enough
-        List<NodeInfo> successors;
-        try{
-            successors = getSuccessorNodes(nodePosition, nReplicas, nodes);
-        }catch (ClusterException e){
-            postOffice.archive(message);
-            return Behaviors.same();
-        }
+        int nodePosition = getNodePosition(message.token);
+        //if the cluster is not big enough, the write is accepted anyway and hinted for the missing successors
+        List<NodeInfo> successors = getAvailableSuccessors(nodePosition, nReplicas, nodes);
         List<String> successorsNames = successors
                 .stream()
                 .map(NodeInfo::getHashKey)
                 .collect(Collectors.toList());
 
-        if ((message.isReplica && !successorsNames.get(message.successorId).equals(hashfunction(address,port)))){
+        //a replica put for the successor nReplicas is a leaderless write of the leader copy
+        boolean toLeader = !message.isReplica || message.successorId == nReplicas;
+        if (message.isReplica && !toLeader && message.successorId >= successors.size()){
+            context.getLog().info("keeping a hint for the missing successor " + message.successorId + ", current size " + this.nodes.size() + "...");
+            Request request = new Request(0, message.replyTo, message.requestId);
+            hint(message.key(), message.value(), message.successorId, request);
+            acknowledge(request);
+            return Behaviors.same();
+        }
+        NodeInfo destination = toLeader ? nodes.get(nodePosition) : successors.get(message.successorId);
+        if (message.isReplica && !destination.getNode().equals(context.getSelf()) && !isReachable(destination)){
+            context.getLog().info("keeping a hint for the unreachable successor " + message.successorId + "...");
+            Request request = new Request(0, message.replyTo, message.requestId);
+            hint(message.key(), message.value(), message.successorId, request);
+            acknowledge(request);
+            return Behaviors.same();
+        }
+        if (message.isReplica && !toLeader && !successorsNames.get(message.successorId).equals(hashfunction(address,port))){
             context.getLog().info("redirecting put to true replica, current size " + this.nodes.size() + "...");
-            ActorRef<Command> successor = successors.get(message.successorId).getNode();
-            postOffice.send(new Letter(successor,new Put(message.key,message.value, message.replyTo, true, message.requestId, message.successorId)));
+            sendPut(destination.getNode(), new Put(message, message.replyTo, true, message.requestId, message.successorId));
             return Behaviors.same();
         }
 
-        if (!message.isReplica && nodePosition != this.nodeId){
+        NodeInfo leader = message.isReplica ? destination : getActingLeader(nodePosition, successors);
+        if (toLeader && !leader.getNode().equals(context.getSelf())){
             context.getLog().info("redirecting put to true leader, current size " + this.nodes.size() + "...");
-            ActorRef<Command> leader = nodes.get(nodePosition).getNode();
-            postOffice.send(new Letter(leader,new Put(message.key,message.value, message.replyTo, false, message.requestId, nReplicas)));
+            sendPut(leader.getNode(), new Put(message, message.replyTo, message.isReplica, message.requestId, nReplicas));
             return Behaviors.same();
         }
 
         if ( message.isReplica){
-            //checking the version number
-            if (this.replicas.containsKey(message.key)){
-                if (this.replicas.get(message.key).version >= message.value.version){
-                    postOffice.send(new Letter(message.replyTo,new PutAnswer(true, message.requestId)));
-                    return Behaviors.same();
-                }
-            }
-            this.replicas.put(message.key, message.value);
-            context.getLog().info("just inserted a replica of key-data "+ message.key + " " + message.value.value +  " ...");
-            postOffice.send(new Letter(message.replyTo,new PutAnswer(true, message.requestId) ));
+            //storing the copy only if it is newer than mine
+            clock.update(message.value().version);
+            store(toLeader ? this.data : this.replicas, message.key(), message.value(), message.isWrite);
+            sendPutAnswer(message.replyTo, new PutAnswer(true, message.requestId));
         }
         else{
             // assigning the correct version number in case it hasn't been assigned
-            if (message.value.version == -1){
-                int version = 0;
-                if (this.data.containsKey(message.key)) version = this.data.get(message.key).version +1;
-                message.value.version = version;
+            stamp(message.key(), message.value());
+            //inserting the copy, and informing the replicas only if it is newer than mine
+            if (nodePosition == this.nodeId && !store(this.data, message.key(), message.value(), message.isWrite)){
+                sendPutAnswer(message.replyTo, new PutAnswer(true, message.requestId));
+                return  Behaviors.same();
             }
+            writeCopies(message.token, message.key(), message.value(), nodePosition, successors, new Request(0, message.replyTo, message.requestId),
+                    message.isWrite);
+            ticket++;
+        }
+        return Behaviors.same();
+    }
 
-            //checking the version number
-            if (this.data.containsKey(message.key)){
-                if (this.data.get(message.key).version >= message.value.version){
-                    postOffice.send( new Letter(message.replyTo, new PutAnswer(true, message.requestId)));
-                    return  Behaviors.same();
-                }
+    //stamping the value with the hybrid logical clock, after any version already stored for the key
+    private void stamp(String key, Value value){
+        if (value.version != Value.UNASSIGNED){
+            clock.update(value.version);
+            return;
+        }
+        Value current = this.data.peek(key);
+        if (current != null) clock.update(current.version);
+        value.version = clock.now();
+        value.writer = clock.getNodeId();
+    }
+
+    //storing the value unless a newer or equal version is already stored, returns whether it has been stored.
+    //The leader copy of a write of a client is recorded in the change log
+    private boolean store(Store map, String key, Value value, boolean write){
+        Value current = map.peek(key);
+        if (current != null && !value.isNewerThan(current)) return false;
+        Shard coded = heldShard(key);
+        if (coded != null && coded.isNewerThan(value)) return false;
+        //the value is not erasure coded anymore
+        if (coded != null) shards.remove(key);
+        map.put(key, value);
+        if (write && map == this.data) record(key, value);
+        invalidateWatchers(key, value);
+        if (value.expiresAt != Value.NEVER) expiry.schedule(key, value.expiresAt);
+        context.getLog().info("just inserted a " + (map == this.data ? "leader version" : "replica") + " of key-data "+ key + " " + value +  " ...");
+        return true;
+    }
+
+    //the change of the key in the change log, see Put.isWrite
+    private void record(String key, Value value){
+        if (changes != null) changes.record(key, value, value.version, value.writer);
+    }
+
+    //writing the value to the leader ( successor nReplicas) and to all the successors of the key:
+    //the copies of the missing successors are hinted, the ones of the unreachable successors are handed off,
+    //and the request is answered when all the remote copies have been acknowledged. If the value is a write of a
+    //client whose leader copy is hinted or handed off, this node records it in its change log instead of the leader
+    private void writeCopies(long token, String key, Value value, int nodePosition, List<NodeInfo> successors, Request request, boolean write){
+        int pending = 0;
+        for (int i = 0; i <= nReplicas; i++){
+            NodeInfo owner = i == nReplicas ? nodes.get(nodePosition) : i < successors.size() ? successors.get(i) : null;
+            boolean self = owner != null && owner.getNode().equals(context.getSelf());
+            if (write && i == nReplicas && !self && (owner == null || !isReachable(owner))) record(key, value);
+            if (owner == null){
+                hint(key, value, i, request);
+            }
+            else if (self){
+                store(i == nReplicas ? this.data : this.replicas, key, value, write);
+            }
+            else if (!isReachable(owner)){
+                pending += handOff(key, value, i, nodePosition, request);
             }
+            else{
+                sendPut(owner.getNode(), new Put(token, key, value, context.getSelf(), true, ticket, i, write));
+                pending++;
+            }
+        }
+        request.setCounter(pending);
+        reply(request);
+    }
 
-            //inserting the copy
-            this.data.put(message.key,message.value);
-            context.getLog().info("just inserted a leader version of key-data "+ message.key + " " + message.value.value +  " ...");
-            //inform the replicas
-            for (int i = 0; i< nReplicas; i++){
-                ActorRef<Command> successor = successors.get(i).getNode();
-                postOffice.send(new Letter(successor, new Put(message.key,message.value, context.getSelf(), true, ticket,i)));
+    //handing the copy of an unreachable successor to the next reachable node which holds no copy of the key:
+    //it keeps the copy as a hint until the successor is reachable again. Returns the number of acknowledgements to wait for
+    private int handOff(String key, Value value, int successorId, int nodePosition, Request request){
+        for (int j = nReplicas + 1; j < nodes.size(); j++){
+            NodeInfo node = nodes.get((nodePosition + j) % nodes.size());
+            if (node.getNode().equals(context.getSelf())) break;
+            if (isReachable(node)){
+                context.getLog().info("handing off the copy of the unreachable successor " + successorId + " of key-data " + key + "...");
+                postOffice.send(new Letter(node.getNode(), new Handoff(key, value, successorId, context.getSelf(), ticket)));
+                return 1;
             }
-            Request request = new Request(nReplicas, message.replyTo);
-            requests.put(ticket, request);
-            ticket++;
         }
+        hint(key, value, successorId, request);
+        return 0;
+    }
+
+    private Behavior<Command> onHandoff(Handoff message){
+        boolean kept = hints.add(new HintedHandoff.Hint(message.key, message.value, message.successorId));
+        postOffice.send(new Letter(message.replyTo, new PutAnswer(kept, message.requestId)));
+        return Behaviors.same();
+    }
+
+    //keeping the copy of a successor as a hint: the request fails if the hint is not on the disk. In a batch, the hint
+    //is synced with the others of the batch, and the request fails if the sync does, see flushBatch
+    private void hint(String key, Value value, int successorId, Request request){
+        if (!hints.add(new HintedHandoff.Hint(key, value, successorId))) request.fail();
+        else if (hinted != null) hinted.add(request);
+    }
+
+    private Behavior<Command> onPutBatch(PutBatch message){
+        beginBatch();
+        for (Put put : message.puts){
+            onPut(put);
+        }
+        flushBatch();
+        return Behaviors.same();
+    }
+
+    private Behavior<Command> onPutAnswerBatch(PutAnswerBatch message){
+        beginBatch();
+        for (PutAnswer answer : message.answers){
+            onPutAnswer(answer);
+        }
+        flushBatch();
+        return Behaviors.same();
+    }
+
+    private void beginBatch(){
+        putBatches = new HashMap<>();
+        answerBatches = new HashMap<>();
+        acknowledgements = new ArrayList<>();
+        hinted = new ArrayList<>();
+        hints.beginBatch();
+    }
+
+    private void flushBatch(){
+        //the hints are on the disk before the puts are acknowledged
+        if (!hints.endBatch()){
+            hinted.forEach(Request::fail);
+        }
+        List<Request> completed = acknowledgements;
+        acknowledgements = null;
+        hinted = null;
+        completed.forEach(this::acknowledge);
+        putBatches.forEach((destination, puts) ->
+                postOffice.send(new Letter(destination, puts.size() == 1 ? puts.get(0) : new PutBatch(puts))));
+        answerBatches.forEach((destination, answers) ->
+                postOffice.send(new Letter(destination, answers.size() == 1 ? answers.get(0) : new PutAnswerBatch(answers))));
+        putBatches = null;
+        answerBatches = null;
+    }
+
+    private void sendPut(ActorRef<Command> destination, Put put){
+        if (isLarge(destination, put)) postOffice.send(new Letter(destination, stream(put)));
+        else if (putBatches != null) putBatches.computeIfAbsent(destination, k -> new ArrayList<>()).add(put);
+        else postOffice.send(new Letter(destination, put));
+    }
+
+    //a put to another process whose value is too large to travel in one message, or to travel without delaying the
+    //messages behind it on the same connection
+    private boolean isLarge(ActorRef<Command> destination, Put put){
+        if (streamThreshold <= 0 || destination.path().address().hasLocalScope()) return false;
+        long size = put.payload() != null ? put.payload().length() : put.key().length() + put.value().size();
+        return size >= streamThreshold;
+    }
+
+    //offering the payload of the put in chunks: the receiver pulls them when it is ready, see onPutStream
+    private PutStream stream(Put put){
+        ByteString payload = put.payload() != null ? put.payload() : DataNodeSerializer.writeKeyValue(put.key(), put.value());
+        List<ByteString> chunks = new ArrayList<>();
+        for (int from = 0; from < payload.length(); from += streamChunkSize){
+            chunks.add(payload.slice(from, Math.min(payload.length(), from + streamChunkSize)));
+        }
+        SourceRef<ByteString> ref = Source.from(chunks).runWith(StreamRefs.sourceRef(), materializer);
+        streamedPuts++;
+        return new PutStream(put.token, ref, put.replyTo, put.isReplica, put.requestId, put.successorId, put.isWrite);
+    }
+
+    //reassembling the payload, then handling the put as if it had arrived in one message
+    private Behavior<Command> onPutStream(PutStream message){
+        context.pipeToSelf(message.payload.getSource().runFold(ByteString.emptyByteString(), ByteString::concat, materializer),
+                (payload, failure) -> failure != null ? new PutStreamFailed(message.requestId, failure)
+                        : new Put(message.token, payload.compact(), message.replyTo, message.isReplica, message.requestId, message.successorId,
+                        message.isWrite));
+        return Behaviors.same();
+    }
+
+    private Behavior<Command> onPutStreamFailed(PutStreamFailed message){
+        context.getLog().warn("the streamed put " + message.requestId + " has failed: " + message.cause.getMessage());
         return Behaviors.same();
     }
 
+    //only the data nodes understand a batch of answers, the other requesters get them one by one
+    private void sendPutAnswer(ActorRef<Command> destination, PutAnswer answer){
+        if (answerBatches != null && isNode(destination)) answerBatches.computeIfAbsent(destination, k -> new ArrayList<>()).add(answer);
+        else postOffice.send(new Letter(destination, answer));
+    }
+
+    //sending the hinted values to their successors, one batch for each destination
+    private void replayHints(){
+        if (hints.isEmpty()) return;
+        HashMap<ActorRef<Command>, List<Put>> batches = new HashMap<>();
+        for (HintedHandoff.Hint hint : hints.nextBatch(hintsBatchSize, hint -> getHintOwner(hint) != null && isReachable(getHintOwner(hint)))){
+            ActorRef<Command> owner = getHintOwner(hint).getNode();
+            if (owner.equals(context.getSelf())){
+                //I've become the missing successor in the meantime
+                store(hint.successorId == nReplicas ? this.data : this.replicas, hint.key, hint.value, false);
+                hints.remove(hint);
+                continue;
+            }
+            hints.sent(hint, ticket);
+            Put put = new Put(hint.token, hint.key, hint.value, context.getSelf(), true, ticket, hint.successorId);
+            if (isLarge(owner, put)) postOffice.send(new Letter(owner, stream(put)));
+            else batches.computeIfAbsent(owner, k -> new ArrayList<>()).add(put);
+            ticket++;
+        }
+        batches.forEach((owner, puts) -> {
+            context.getLog().info("replaying " + puts.size() + " hinted writes...");
+            postOffice.send(new Letter(owner, new PutBatch(puts)));
+        });
+    }
+
+    //the node which has missed the hinted value, null if it is still missing
+    private NodeInfo getHintOwner(HintedHandoff.Hint hint){
+        int nodePosition = getNodePosition(hint.token);
+        if (hint.successorId == nReplicas) return nodes.get(nodePosition);
+        List<NodeInfo> successors = getAvailableSuccessors(nodePosition, nReplicas, nodes);
+        return hint.successorId < successors.size() ? successors.get(hint.successorId) : null;
+    }
+
+    //waiting for the acknowledgements of the request, or answering straight away if there are none to wait for
+    private void reply(Request request){
+        if (request.getCounter() == 0){
+            acknowledge(request);
+        }
+        else{
+            requests.put(ticket, request);
+        }
+    }
+
+    //answering the completed put request, or counting it in its multi put which is answered when all its keys are written
+    private void acknowledge(Request request){
+        if (acknowledgements != null){
+            acknowledgements.add(request);
+            return;
+        }
+        //a failed write is answered like a put, whatever it was
+        if (request.getWritten() != null && !request.isFailed()){
+            Value written = request.getWritten();
+            answer(request.requester, request.correlationId, request.answersValue() ?
+                    new UpdateAnswer(true, request.requestId, written.text(), written.version, written.writer, null) :
+                    new ConditionalPutAnswer(true, request.requestId, written.version, written.writer));
+            return;
+        }
+        if (request.parent == null){
+            PutAnswer answer = new PutAnswer(!request.isFailed(), request.requestId);
+            if (request.correlationId != 0) answer(request.requester, request.correlationId, answer);
+            else sendPutAnswer(request.requester, answer);
+            return;
+        }
+        Request parent = request.parent;
+        if (request.isFailed()) parent.fail();
+        parent.setCounter(parent.getCounter()-1);
+        if (parent.getCounter() == 0){
+            answer(parent.requester, parent.correlationId, new PutAnswer(!parent.isFailed(), parent.requestId));
+        }
+    }
+
+    //the answer to a client request, wrapped with its correlation id if it has one
+    private void answer(ActorRef<Command> client, long correlationId, Command answer){
+        postOffice.send(new Letter(client, correlationId == 0 ? answer : new Correlated(correlationId, answer)));
+    }
+
 
     private Behavior<Command> onNodesUpdate(NodesUpdate message) {
         context.getLog().info("The cluster has changed");
@@ -510,50 +2201,166 @@ public class DataNode  {
             }
         }
 
-        //reassigning all the values
-        HashMap<String,Value> allData = new HashMap<>(this.data);
-        allData.putAll(this.replicas);
-        this.data.clear();
-        this.replicas.clear();
-        allData.forEach((key, value) -> {
-            int nodePosition = key.hashCode() % nodes.size();
-            if (nodePosition < 0) nodePosition += nodes.size();
-            nodes.sort(Comparator.comparing(NodeInfo::getHashKey));
-            //checking whether the cluster is big enough
-            List<NodeInfo> successors = null;
-            try {
-                successors = getSuccessorNodes(nodePosition, nReplicas, nodes);
-            } catch (ClusterException e) {
-                //this exception is never thrown here due to if clause
-            }
+        //reassigning all the values, the ones spilled to disk included: the newest of the two copies of a key wins
+        LinkedHashSet<String> allKeys = new LinkedHashSet<>(this.replicas.keys());
+        allKeys.addAll(this.data.keys());
+        for (String key : allKeys) {
+            Value value = newest(this.data.peek(key), this.replicas.peek(key));
+            long token = KeyToken.of(key);
+            int nodePosition = getNodePosition(token);
+            //if the cluster is not big enough, the missing successors will get the value from the next reassignment
+            List<NodeInfo> successors = getAvailableSuccessors(nodePosition, nReplicas, nodes);
             if (nodePosition == this.nodeId) {
-                context.getLog().info("just inserted a leader version of key-data " + key + " " + value.value + " due to new topology...");
+                context.getLog().info("just inserted a leader version of key-data " + key + " " + value + " due to new topology...");
                 //I'm the leader, so I add the value to my data
-                this.data.put(key, value);
+                reassign(this.data, key, value);
             } else {
+                this.data.remove(key);
                 //I send the data to the leader of that data
                 context.getLog().info("sending an update to the leader of this data: I'm " + this.port + "...");
                 ActorRef<Command> leader = nodes.get(nodePosition).getNode();
-                postOffice.send(new Letter(leader, new Put(key, value, context.getSelf(), false, ticket, nReplicas)));
+                sendPut(leader, new Put(token, key, value, context.getSelf(), false, ticket, nReplicas));
 
             }
             //optimizations are possible here -- I send the data to all successors
             boolean isReplica = successors.stream().map(NodeInfo::getHashKey).collect(Collectors.toList()).contains(hashfunction(address, port));
-            if (isReplica) this.replicas.put(key, value);
-            for (int k = 0; k < nReplicas; k++) {
+            if (isReplica) reassign(this.replicas, key, value);
+            else this.replicas.remove(key);
+            for (int k = 0; k < successors.size(); k++) {
                 ActorRef<Command> successor = successors.get(k).getNode();
-                postOffice.send( new Letter(successor, new Put(key, value, context.getSelf(), true, ticket, k)));
+                sendPut(successor, new Put(token, key, value, context.getSelf(), true, ticket, k));
             }
             ticket++;
-        });
+        }
+        reassignShards();
+        replayHints();
+        return Behaviors.same();
+    }
+
+    //the copy with the highest version, null if both are missing
+    private static Value newest(Value leader, Value replica){
+        if (leader == null) return replica;
+        if (replica == null) return leader;
+        return HybridClock.compare(replica.version, replica.writer, leader.version, leader.writer) > 0 ? replica : leader;
+    }
+
+    //keeping the copy in place if it is already the reassigned one, so that a copy on disk is not brought back to memory
+    private void reassign(Store map, String key, Value value){
+        Value current = map.peek(key);
+        if (current == null || HybridClock.compare(current.version, current.writer, value.version, value.writer) != 0
+                || current.expiresAt != value.expiresAt) map.put(key, value);
+    }
+
+    private Behavior<Command> onReachabilityChanged(ReachabilityChanged message){
+        String hashKey = hashfunction(message.address, String.valueOf(message.port));
+        if (message.reachable){
+            context.getLog().info("routing again to " + message.address + ":" + message.port);
+            unreachable.remove(hashKey);
+            //giving back to the node the copies handed off while it was unreachable
+            replayHints();
+        }
+        else{
+            context.getLog().info("not routing anymore to " + message.address + ":" + message.port + " until it is reachable");
+            unreachable.add(hashKey);
+        }
         return Behaviors.same();
     }
 
     private Behavior<Command> onTimeout(Timeout message){
         postOffice.addStamps(5);
+        replayHints();
+        //the readers which have not read a key for longer than the near cache ttl have dropped it already
+        long now = System.nanoTime();
+        watchers.values().removeIf(readers -> now - readers.lastRead >= nearCacheTtl);
+        if (nearCache != null) nearCache.removeExpired();
+        expireRebuilds();
+        return Behaviors.same();
+    }
+
+    //removing the copies expired until now, a batch at a time: the next ones wait for the next tick
+    private Behavior<Command> onExpiryTick(ExpiryTick message){
+        long now = System.currentTimeMillis();
+        expiry.advance(now);
+        for (String key : expiry.takeExpired(expiryBatchSize)){
+            //the copy may have been overwritten with a later expiry, or none
+            Value leader = this.data.peek(key);
+            if (leader != null && leader.isExpired(now)) remove(this.data, key);
+            Value replica = this.replicas.peek(key);
+            if (replica != null && replica.isExpired(now)) remove(this.replicas, key);
+            heldShard(key);
+        }
+        return Behaviors.same();
+    }
+
+    //dropping the copy of the key from the near caches of the readers watching it
+    private void invalidateWatchers(String key, Value value){
+        Watchers readers = watchers.remove(key);
+        if (readers == null) return;
+        for (ActorRef<Command> reader : readers.nodes){
+            if (reader.equals(context.getSelf())) onInvalidate(new Invalidate(key, value.version, value.writer));
+            else postOffice.send(new Letter(reader, new Invalidate(key, value.version, value.writer)));
+        }
+    }
+
+    private Behavior<Command> onInvalidate(Invalidate message){
+        invalidateLocal(message.key, message.version, message.writer);
         return Behaviors.same();
     }
 
+    //the GETs arriving from now on must not get the answer of a read which may have missed a write of the key:
+    //the read in flight is not joined anymore, and the near cache drops its copy if it is older than the version
+    //written, or anyway if the version is not assigned yet
+    private void invalidateLocal(String key, long version, long writer){
+        inflightGets.remove(key);
+        if (nearCache == null) return;
+        if (version == Value.UNASSIGNED) nearCache.invalidate(key);
+        else if (nearCache.invalidate(key, version, writer)) invalidations++;
+    }
+
+    //the shards of one version of a value collected to rebuild it, and who is waiting for it
+    private static final class Rebuild{
+        private final String key;
+        private final Shard coded;
+        private final byte[][] shards;
+        private final int requestId;
+        private final int successorId;
+        private final Consumer<GetAnswer> reply;
+        private final long startedAt = System.nanoTime();
+        private int found = 0;
+        //the holders which have not answered yet
+        private int pending = 0;
+
+        private Rebuild(String key, Shard coded, int requestId, int successorId, Consumer<GetAnswer> reply){
+            this.key = key;
+            this.coded = coded;
+            this.shards = new byte[coded.dataShards + coded.parityShards][];
+            this.requestId = requestId;
+            this.successorId = successorId;
+            this.reply = reply;
+        }
+
+        //keeping the shard if it belongs to the version being rebuilt
+        private void add(Shard shard){
+            if (!shard.sameVersion(coded.version, coded.writer) || shards[shard.index] != null) return;
+            shards[shard.index] = shard.bytes;
+            found++;
+        }
+
+        private boolean isComplete(){
+            return found >= coded.dataShards;
+        }
+    }
+
+    private static final class Watchers{
+        private final Set<ActorRef<Command>> nodes = new HashSet<>();
+        private long lastRead;
+
+        private void add(ActorRef<Command> reader){
+            nodes.add(reader);
+            lastRead = System.nanoTime();
+        }
+    }
+
 
 
 
@@ -581,7 +2388,49 @@ public class DataNode  {
         return hexHash.toString();
     }
 
+    private boolean isNode(ActorRef<Command> ref){
+        for (NodeInfo node : nodes){
+            if (node.getNode().equals(ref)) return true;
+        }
+        return false;
+    }
+
+    private boolean isReachable(NodeInfo node){
+        return !unreachable.contains(node.getHashKey());
+    }
+
+    //the leader of the key, or its first reachable successor if the leader is unreachable
+    private NodeInfo getActingLeader(int nodePosition, List<NodeInfo> successors){
+        NodeInfo leader = nodes.get(nodePosition);
+        if (isReachable(leader)) return leader;
+        for (NodeInfo successor : successors){
+            if (isReachable(successor)) return successor;
+        }
+        return leader;
+    }
+
+    //position of the leader of the key with the given token in the table of nodes, sorted by hash: the first node
+    //at or after the token on the ring, so a node joining or leaving moves only the keys of its own arc
+    private int getNodePosition(long token){
+        nodes.sort(Comparator.comparing(NodeInfo::getHashKey));
+        int low = 0;
+        int high = nodes.size();
+        while (low < high){
+            int middle = (low + high) >>> 1;
+            if (Long.compareUnsigned(nodes.get(middle).getToken(), token) < 0) low = middle + 1;
+            else high = middle;
+        }
+        return low == nodes.size() ? 0 : low;
+    }
+
     private List<NodeInfo> getSuccessorNodes(int nodeId, int nReplicas, List<NodeInfo> nodes)throws ClusterException{
+        List<NodeInfo> selectedNodes = getAvailableSuccessors(nodeId, nReplicas, nodes);
+        if (selectedNodes.size() < nReplicas) throw new ClusterException();
+        return selectedNodes;
+    }
+
+    //the successors of the leader, less than nReplicas if the cluster is not big enough
+    private List<NodeInfo> getAvailableSuccessors(int nodeId, int nReplicas, List<NodeInfo> nodes){
         int nNodes = nodes.size();
         List<NodeInfo> selectedNodes = new LinkedList<>();
         int i=1;
@@ -597,7 +2446,6 @@ public class DataNode  {
             i++;
             j++;
         }
-        if (selectedNodes.size() < nReplicas) throw new ClusterException();
         return selectedNodes;
     }
 
@@ -628,17 +2476,153 @@ public class DataNode  {
      */
 
     private Behavior<Command> onGetAllLocalRequest(GetAllLocalRequest message){
-        Collection<String> allData = this.data.values().stream().map(n -> n.value).collect(Collectors.toList());
+        Collection<String> allData = new ArrayList<>();
+        this.data.forEach((key, value) -> {
+            if (!value.isDeleted()) allData.add(value.text());
+        });
         context.getLog().info(allData.size() + " number of leader data");
-        Collection<String> replicas = this.replicas.values().stream().map(n -> n.value).collect(Collectors.toList());
+        Collection<String> replicas = new ArrayList<>();
+        this.replicas.forEach((key, value) -> {
+            if (!value.isDeleted()) replicas.add(value.text());
+        });
         context.getLog().info(replicas.size() + " number of replica data");
         allData.addAll(replicas);
         postOffice.send(new Letter(message.replyTo, new GetAllLocalAnswer(allData)));
         return Behaviors.same();
     }
 
+    private Behavior<Command> onGetHotKeys(GetHotKeys message){
+        List<HotKeys.HotKey> top = hotKeys == null ? Collections.emptyList() : hotKeys.top();
+        postOffice.send(new Letter(message.replyTo, new HotKeysAnswer(address + ":" + port, top)));
+        return Behaviors.same();
+    }
+
+    private Behavior<Command> onGetMetrics(GetMetrics message){
+        Map<String, Long> counters = new LinkedHashMap<>();
+        counters.put("getRequests", getRequests);
+        counters.put("coalescedGets", coalescedGets);
+        counters.put("inflightGets", (long) inflightGets.size());
+        counters.put("nearCacheHits", nearCacheHits);
+        counters.put("nearCacheSize", nearCache == null ? 0L : nearCache.size());
+        counters.put("hotKeys", hotKeys == null ? 0L : hotKeys.size());
+        counters.put("invalidations", invalidations);
+        counters.put("expiringKeys", (long) expiry.size());
+        counters.put("expiredKeys", expiredKeys);
+        counters.put("sweptTombstones", sweptTombstones);
+        counters.put("conditionalPuts", conditionalPuts);
+        counters.put("conflicts", conflicts);
+        counters.put("updates", updates);
+        counters.put("compressedValues", compressedValues);
+        counters.put("compressedSavedBytes", compressedSavedBytes);
+        counters.put("streamedPuts", streamedPuts);
+        counters.put("codedValues", codedValues);
+        counters.put("heldShards", (long) shards.size());
+        counters.put("rebuiltValues", rebuiltValues);
+        counters.put("failedRebuilds", failedRebuilds);
+        counters.put("failedGets", failedGets);
+        counters.put("failedHintWrites", hints.getFailedWrites());
+        data.addMetrics("data", counters);
+        replicas.addMetrics("replicas", counters);
+        postOffice.send(new Letter(message.replyTo, new Metrics(address + ":" + port, counters)));
+        return Behaviors.same();
+    }
+
     private Behavior<Command> onGetNodesRequest (GetNodesRequest message){
-        postOffice.send(new Letter(message.replyTo, new GetNodesAnswer(this.nodes)));
+        postOffice.send(new Letter(message.replyTo, new GetNodesAnswer(new ArrayList<>(this.nodes))));
+        return Behaviors.same();
+    }
+
+    //the keys of the page are read in order from the stores, only up to the first key after the page.
+    //A page which cannot be read from disk is not answered, so that the scan fails instead of missing keys
+    private Behavior<Command> onExportPage(ExportPage message){
+        int limit = Math.min(message.limit, exportPageSize);
+        TreeSet<String> keys = new TreeSet<>();
+        List<ExportRecord> records = new ArrayList<>();
+        boolean more;
+        try{
+            more = selectPage(this.data, message, limit, keys);
+            if (!message.leaderOnly) more |= selectPage(this.replicas, message, limit, keys);
+            more |= readPage(keys, message.leaderOnly, records);
+        }catch (IOException e){
+            context.getLog().error("cannot read the page of keys from " + message.from, e);
+            return Behaviors.same();
+        }
+        postOffice.send(new Letter(message.replyTo, new ExportPageAnswer(records, !more)));
+        return Behaviors.same();
+    }
+
+    //adding the live copies of the keys to the records, returns whether the page has been cut short
+    private boolean readPage(TreeSet<String> keys, boolean leaderOnly, List<ExportRecord> records) throws IOException{
+        long bytes = 0;
+        for (String key : keys){
+            //the page is cut short if the values are large, to stay well below the maximum frame size
+            if (bytes > exportPageBytes) return true;
+            Value leader = live(this.data, key);
+            Value replica = leaderOnly ? null : live(this.replicas, key);
+            if (leader != null && leader.isDeleted()) leader = null;
+            if (replica != null && replica.isDeleted()) replica = null;
+            ExportRecord leaderRecord = leader == null ? null : new ExportRecord(key, leader.text(), leader.version, leader.writer, true);
+            ExportRecord replicaRecord = replica == null ? null : new ExportRecord(key, replica.text(), replica.version, replica.writer, false);
+            if (leaderRecord != null) records.add(leaderRecord);
+            if (replicaRecord != null) records.add(replicaRecord);
+            bytes += key.length() + (leaderRecord != null ? leaderRecord.value.length() : 0) + (replicaRecord != null ? replicaRecord.value.length() : 0);
+        }
+        return false;
+    }
+
+    //adding to the page the smallest live keys of the store in the range, returns whether some keys have been left out:
+    //they may be deleted or expired, in which case the next page is empty
+    private boolean selectPage(Store candidates, ExportPage range, int limit, TreeSet<String> page) throws IOException{
+        boolean[] more = {false};
+        long now = System.currentTimeMillis();
+        candidates.scan(range.from, range.fromInclusive, range.to, (key, value) -> {
+            //the keys come in order: once the page is full, the next ones are left out
+            if (page.size() == limit && key.compareTo(page.last()) >= 0){
+                if (key.equals(page.last())) return true;
+                more[0] = true;
+                return false;
+            }
+            if (value.isExpired(now) || value.isDeleted()) return true;
+            if (page.add(key) && page.size() > limit){
+                page.pollLast();
+                more[0] = true;
+            }
+            return true;
+        });
+        return more[0];
+    }
+
+    //asking all the nodes how many keys they store
+    private Behavior<Command> onGetDistributionRequest(GetDistributionRequest message){
+        requests.put(ticket, new Request(nodes.size(), message.replyTo, ticket));
+        keyCounts.put(ticket, new ArrayList<>());
+        for (NodeInfo node : nodes){
+            postOffice.send(new Letter(node.getNode(), new GetKeyCount(context.getSelf(), ticket)));
+        }
+        ticket++;
+        return Behaviors.same();
+    }
+
+    private Behavior<Command> onGetKeyCount(GetKeyCount message){
+        postOffice.send(new Letter(message.replyTo, new KeyCount(address + ":" + port, this.data.size(), this.replicas.size(), message.requestId)));
+        return Behaviors.same();
+    }
+
+    private Behavior<Command> onKeyCount(KeyCount message){
+        if (!requests.containsKey(message.requestId)) return Behaviors.same();
+        Request request = requests.get(message.requestId);
+        List<KeyCount> counts = keyCounts.get(message.requestId);
+        counts.add(message);
+        request.setCounter(request.getCounter()-1);
+        if (request.getCounter() == 0){
+            requests.remove(message.requestId);
+            keyCounts.remove(message.requestId);
+            counts.sort(Comparator.comparing(count -> count.node));
+            int totalKeys = counts.stream().mapToInt(count -> count.leaderKeys).sum();
+            int maxKeys = counts.stream().mapToInt(count -> count.leaderKeys).max().orElse(0);
+            double skew = totalKeys == 0 ? 1 : maxKeys * counts.size() / (double) totalKeys;
+            postOffice.send(new Letter(request.requester, new GetDistributionAnswer(counts, totalKeys, skew)));
+        }
         return Behaviors.same();
     }
 }
@@ -0,0 +1,453 @@
+package project;
+
+import akka.actor.ExtendedActorSystem;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorRefResolver;
+import akka.actor.typed.javadsl.Adapter;
+import akka.serialization.SerializerWithStringManifest;
+import akka.util.ByteString;
+
+import java.io.NotSerializableException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binary serializer of the messages exchanged among the data nodes, bound to them in application.conf.
+ * Each message has a fixed layout: ints are written as zig-zag varints, longs in 8 bytes, strings as
+ * their UTF-8 bytes prefixed by the length, and actor refs as their serialization format, which is
+ * cached in both directions to avoid resolving the same few refs over and over.
+ * A compressed value ( see Value.compress) travels compressed: a null string followed by its bytes.
+ * Get and Put are split into a routing header and a payload with their key and value: the payload
+ * is copied out of the received bytes and decoded only by the node which serves the command,
+ * so a redirected command is forwarded without encoding its key and value again.
+ * The other messages are still serialized by Jackson, see CborSerializable.
+ */
+public class DataNodeSerializer extends SerializerWithStringManifest {
+    private static final String GET = "G";
+    private static final String GET_ANSWER = "GA";
+    private static final String PUT = "P";
+    private static final String PUT_ANSWER = "PA";
+    private static final String PUT_BATCH = "PB";
+    private static final String HANDOFF = "H";
+    private static final String GET_BATCH = "GB";
+    private static final String GET_BATCH_ANSWER = "GBA";
+    private static final String PUT_ANSWER_BATCH = "PAB";
+    private static final String INVALIDATE = "I";
+
+    //the caches are simply cleared when they grow over this size: a cluster has few data nodes
+    private static final int MAX_CACHED_REFS = 1024;
+
+    private final ExtendedActorSystem system;
+    private final ConcurrentHashMap<ActorRef<?>, byte[]> serializedRefs = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ActorRef<DataNode.Command>> resolvedRefs = new ConcurrentHashMap<>();
+    //resolved lazily, the typed system does not exist yet when the serializers are created
+    private volatile ActorRefResolver resolver;
+
+    public DataNodeSerializer(ExtendedActorSystem system) {
+        this.system = system;
+    }
+
+    @Override
+    public int identifier() {
+        return 7919;
+    }
+
+    @Override
+    public String manifest(Object o) {
+        if (o instanceof DataNode.Get) return GET;
+        if (o instanceof DataNode.GetAnswer) return GET_ANSWER;
+        if (o instanceof DataNode.Put) return PUT;
+        if (o instanceof DataNode.PutAnswer) return PUT_ANSWER;
+        if (o instanceof DataNode.PutBatch) return PUT_BATCH;
+        if (o instanceof DataNode.Handoff) return HANDOFF;
+        if (o instanceof DataNode.GetBatch) return GET_BATCH;
+        if (o instanceof DataNode.GetBatchAnswer) return GET_BATCH_ANSWER;
+        if (o instanceof DataNode.PutAnswerBatch) return PUT_ANSWER_BATCH;
+        if (o instanceof DataNode.Invalidate) return INVALIDATE;
+        throw new IllegalArgumentException("Can't serialize object of type " + o.getClass() + " in " + getClass().getName());
+    }
+
+    @Override
+    public byte[] toBinary(Object o) {
+        Output out = new Output();
+        if (o instanceof DataNode.Get) {
+            writeGet(out, (DataNode.Get) o);
+        } else if (o instanceof DataNode.GetAnswer) {
+            writeGetAnswer(out, (DataNode.GetAnswer) o);
+        } else if (o instanceof DataNode.Put) {
+            writePut(out, (DataNode.Put) o);
+        } else if (o instanceof DataNode.PutAnswer) {
+            writePutAnswer(out, (DataNode.PutAnswer) o);
+        } else if (o instanceof DataNode.GetBatch) {
+            List<DataNode.Get> gets = ((DataNode.GetBatch) o).gets;
+            out.writeInt(gets.size());
+            for (DataNode.Get get : gets) writeGet(out, get);
+        } else if (o instanceof DataNode.GetBatchAnswer) {
+            List<DataNode.GetAnswer> answers = ((DataNode.GetBatchAnswer) o).answers;
+            out.writeInt(answers.size());
+            for (DataNode.GetAnswer answer : answers) writeGetAnswer(out, answer);
+        } else if (o instanceof DataNode.PutAnswerBatch) {
+            List<DataNode.PutAnswer> answers = ((DataNode.PutAnswerBatch) o).answers;
+            out.writeInt(answers.size());
+            for (DataNode.PutAnswer answer : answers) writePutAnswer(out, answer);
+        } else if (o instanceof DataNode.PutBatch) {
+            List<DataNode.Put> puts = ((DataNode.PutBatch) o).puts;
+            out.writeInt(puts.size());
+            for (DataNode.Put put : puts) writePut(out, put);
+        } else if (o instanceof DataNode.Handoff) {
+            DataNode.Handoff handoff = (DataNode.Handoff) o;
+            out.writeString(handoff.key);
+            writeValue(out, handoff.value);
+            out.writeInt(handoff.successorId);
+            writeRef(out, handoff.replyTo);
+            out.writeInt(handoff.requestId);
+        } else if (o instanceof DataNode.Invalidate) {
+            DataNode.Invalidate invalidate = (DataNode.Invalidate) o;
+            out.writeString(invalidate.key);
+            out.writeLong(invalidate.version);
+            out.writeLong(invalidate.writer);
+        } else {
+            throw new IllegalArgumentException("Can't serialize object of type " + o.getClass() + " in " + getClass().getName());
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+        Input in = new Input(bytes);
+        switch (manifest) {
+            case GET:
+                return readGet(in);
+            case GET_ANSWER:
+                return readGetAnswer(in);
+            case PUT:
+                return readPut(in);
+            case PUT_ANSWER:
+                return readPutAnswer(in);
+            case GET_BATCH: {
+                int size = in.readInt();
+                List<DataNode.Get> gets = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) gets.add(readGet(in));
+                return new DataNode.GetBatch(gets);
+            }
+            case GET_BATCH_ANSWER: {
+                int size = in.readInt();
+                List<DataNode.GetAnswer> answers = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) answers.add(readGetAnswer(in));
+                return new DataNode.GetBatchAnswer(answers);
+            }
+            case PUT_ANSWER_BATCH: {
+                int size = in.readInt();
+                List<DataNode.PutAnswer> answers = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) answers.add(readPutAnswer(in));
+                return new DataNode.PutAnswerBatch(answers);
+            }
+            case PUT_BATCH: {
+                int size = in.readInt();
+                List<DataNode.Put> puts = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) puts.add(readPut(in));
+                return new DataNode.PutBatch(puts);
+            }
+            case HANDOFF:
+                return new DataNode.Handoff(in.readString(), readValue(in), in.readInt(), readRef(in), in.readInt());
+            case INVALIDATE:
+                return new DataNode.Invalidate(in.readString(), in.readLong(), in.readLong());
+            default:
+                throw new NotSerializableException("Unimplemented deserialization of message with manifest [" + manifest + "] in " + getClass().getName());
+        }
+    }
+
+    //----------------------------------------------------------------------------------
+    //shared parts of the messages
+
+    private void writeGet(Output out, DataNode.Get get) {
+        out.writeLong(get.token);
+        writeRef(out, get.replyTo);
+        out.writeInt(get.requestId);
+        out.writeInt(get.successorID);
+        out.writeBoolean(get.watch);
+        if (get.payload() != null) {
+            out.writeBytes(get.payload());
+        } else {
+            Output payload = new Output();
+            payload.writeString(get.key());
+            out.writeBytes(payload);
+        }
+    }
+
+    private DataNode.Get readGet(Input in) {
+        long token = in.readLong();
+        ActorRef<DataNode.Command> replyTo = readRef(in);
+        int requestId = in.readInt();
+        int successorId = in.readInt();
+        boolean watch = in.readBoolean();
+        return new DataNode.Get(token, in.readPayload(), replyTo, requestId, successorId, watch);
+    }
+
+    private static void writeGetAnswer(Output out, DataNode.GetAnswer answer) {
+        out.writeString(answer.key);
+        out.writeString(answer.value);
+        out.writeBoolean(answer.isPresent);
+        out.writeInt(answer.requestId);
+        out.writeLong(answer.version);
+        out.writeLong(answer.writer);
+        out.writeInt(answer.successorId);
+        out.writeLong(answer.expiresAt);
+        out.writeString(answer.error);
+    }
+
+    private static DataNode.GetAnswer readGetAnswer(Input in) {
+        return new DataNode.GetAnswer(in.readString(), in.readString(), in.readBoolean(), in.readInt(),
+                in.readLong(), in.readLong(), in.readInt(), in.readLong(), in.readString());
+    }
+
+    private static void writePutAnswer(Output out, DataNode.PutAnswer answer) {
+        out.writeBoolean(answer.success);
+        out.writeInt(answer.requestId);
+    }
+
+    private static DataNode.PutAnswer readPutAnswer(Input in) {
+        return new DataNode.PutAnswer(in.readBoolean(), in.readInt());
+    }
+
+    private void writePut(Output out, DataNode.Put put) {
+        out.writeLong(put.token);
+        writeRef(out, put.replyTo);
+        out.writeBoolean(put.isReplica);
+        out.writeInt(put.requestId);
+        out.writeInt(put.successorId);
+        out.writeBoolean(put.isWrite);
+        if (put.payload() != null) {
+            out.writeBytes(put.payload());
+        } else {
+            Output payload = new Output();
+            payload.writeString(put.key());
+            writeValue(payload, put.value());
+            out.writeBytes(payload);
+        }
+    }
+
+    private DataNode.Put readPut(Input in) {
+        long token = in.readLong();
+        ActorRef<DataNode.Command> replyTo = readRef(in);
+        boolean isReplica = in.readBoolean();
+        int requestId = in.readInt();
+        int successorId = in.readInt();
+        boolean isWrite = in.readBoolean();
+        return new DataNode.Put(token, in.readPayload(), replyTo, isReplica, requestId, successorId, isWrite);
+    }
+
+    static final class KeyValue {
+        final String key;
+        final Value value;
+
+        private KeyValue(String key, Value value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    //decoding the payload of a Get
+    static String readKey(ByteString payload) {
+        return new Input(payload.toArray()).readString();
+    }
+
+    //encoding the payload of a Put, see DataNode.PutStream
+    static ByteString writeKeyValue(String key, Value value) {
+        Output payload = new Output();
+        payload.writeString(key);
+        writeValue(payload, value);
+        return ByteString.fromArrayUnsafe(payload.buffer, 0, payload.position);
+    }
+
+    //decoding the payload of a Put
+    static KeyValue readKeyValue(ByteString payload) {
+        Input in = new Input(payload.toArray());
+        return new KeyValue(in.readString(), readValue(in));
+    }
+
+    //a deleted value has neither the string nor the compressed bytes
+    private static void writeValue(Output out, Value value) {
+        out.writeString(value.value);
+        if (value.value == null) out.writeBytes(value.compressed);
+        out.writeLong(value.version);
+        out.writeLong(value.writer);
+        out.writeLong(value.expiresAt);
+    }
+
+    private static Value readValue(Input in) {
+        String value = in.readString();
+        if (value == null) {
+            byte[] compressed = in.readBytes();
+            if (compressed == null) return Value.deleted(in.readLong(), in.readLong(), in.readLong());
+            return Value.compressed(compressed, in.readLong(), in.readLong(), in.readLong());
+        }
+        return new Value(value, in.readLong(), in.readLong(), in.readLong());
+    }
+
+    private void writeRef(Output out, ActorRef<?> ref) {
+        byte[] serialized = serializedRefs.get(ref);
+        if (serialized == null) {
+            serialized = getResolver().toSerializationFormat(ref).getBytes(StandardCharsets.UTF_8);
+            if (serializedRefs.size() >= MAX_CACHED_REFS) serializedRefs.clear();
+            serializedRefs.put(ref, serialized);
+        }
+        out.writeBytes(serialized);
+    }
+
+    private ActorRef<DataNode.Command> readRef(Input in) {
+        String path = in.readString();
+        ActorRef<DataNode.Command> ref = resolvedRefs.get(path);
+        if (ref == null) {
+            ref = getResolver().resolveActorRef(path);
+            if (resolvedRefs.size() >= MAX_CACHED_REFS) resolvedRefs.clear();
+            resolvedRefs.put(path, ref);
+        }
+        return ref;
+    }
+
+    private ActorRefResolver getResolver() {
+        if (resolver == null) resolver = ActorRefResolver.get(Adapter.toTyped(system));
+        return resolver;
+    }
+
+    //----------------------------------------------------------------------------------
+    //binary encoding
+
+    private static final class Output {
+        private byte[] buffer = new byte[64];
+        private int position = 0;
+
+        private void ensure(int size) {
+            if (position + size > buffer.length) {
+                byte[] larger = new byte[Math.max(buffer.length * 2, position + size)];
+                System.arraycopy(buffer, 0, larger, 0, position);
+                buffer = larger;
+            }
+        }
+
+        void writeBoolean(boolean value) {
+            ensure(1);
+            buffer[position++] = (byte) (value ? 1 : 0);
+        }
+
+        //zig-zag varint: small ints, positive or negative, take one or two bytes
+        void writeInt(int value) {
+            int zigzag = (value << 1) ^ (value >> 31);
+            ensure(5);
+            while ((zigzag & ~0x7F) != 0) {
+                buffer[position++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buffer[position++] = (byte) zigzag;
+        }
+
+        void writeLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (value >>> shift);
+            }
+        }
+
+        //the length is shifted by one so that 0 encodes null
+        void writeString(String value) {
+            if (value == null) {
+                writeInt(0);
+                return;
+            }
+            writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void writeBytes(byte[] bytes) {
+            if (bytes == null) {
+                writeInt(0);
+                return;
+            }
+            writeInt(bytes.length + 1);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        void writeBytes(ByteString bytes) {
+            writeInt(bytes.length() + 1);
+            ensure(bytes.length());
+            bytes.copyToArray(buffer, position, bytes.length());
+            position += bytes.length();
+        }
+
+        void writeBytes(Output bytes) {
+            writeInt(bytes.position + 1);
+            ensure(bytes.position);
+            System.arraycopy(bytes.buffer, 0, buffer, position, bytes.position);
+            position += bytes.position;
+        }
+
+        byte[] toByteArray() {
+            byte[] result = new byte[position];
+            System.arraycopy(buffer, 0, result, 0, position);
+            return result;
+        }
+    }
+
+    private static final class Input {
+        private final byte[] buffer;
+        private int position = 0;
+
+        Input(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        boolean readBoolean() {
+            return buffer[position++] != 0;
+        }
+
+        int readInt() {
+            int zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer[position++];
+                zigzag |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        long readLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (buffer[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        String readString() {
+            int length = readInt() - 1;
+            if (length < 0) return null;
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        byte[] readBytes() {
+            int length = readInt() - 1;
+            if (length < 0) return null;
+            byte[] bytes = new byte[length];
+            System.arraycopy(buffer, position, bytes, 0, length);
+            position += length;
+            return bytes;
+        }
+
+        //copied, not sliced: a slice would keep the whole received frame, a batch of puts included, alive as long
+        //as any of its commands
+        ByteString readPayload() {
+            int length = readInt() - 1;
+            ByteString payload = ByteString.fromArray(buffer, position, length);
+            position += length;
+            return payload;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package project;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel of the keys with a ttl: LEVELS wheels of SLOTS slots, a slot of level l spans
+ * SLOTS^l ticks. A key waits in the slot of the lowest level which reaches its expiry, and moves down a level
+ * each time the wheel above reaches its slot, so each tick looks only at the slots it reaches and never at the
+ * keys expiring later. Keys expiring beyond the range of the top level wait a full turn of it and are placed again.
+ * The expired keys are collected in order and taken in batches by the node, which checks that its copy has not
+ * been overwritten in the meantime. Not thread safe.
+ */
+public class ExpiryWheel {
+    private static final int LEVELS = 4;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private final long tickMillis;
+    private final List<List<Entry>> wheels = new ArrayList<>();
+    private final ArrayDeque<String> expired = new ArrayDeque<>();
+    private long currentTick;
+    private int size = 0;
+
+    public ExpiryWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+        for (int i = 0; i < LEVELS * SLOTS; i++) wheels.add(new ArrayList<>());
+    }
+
+    public void schedule(String key, long expiresAt) {
+        //rounded up, a key never leaves the wheel before its expiry
+        place(new Entry(key, (expiresAt + tickMillis - 1) / tickMillis));
+        size++;
+    }
+
+    //moving the wheels forward to the current time: the keys expired meanwhile are ready to be taken
+    public void advance(long nowMillis) {
+        long target = nowMillis / tickMillis;
+        while (currentTick < target) {
+            currentTick++;
+            //the upper levels first, so a key can move down more than one level in the same tick
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0) continue;
+                List<Entry> slot = slot(level, currentTick);
+                if (slot.isEmpty()) continue;
+                List<Entry> moving = new ArrayList<>(slot);
+                slot.clear();
+                for (Entry entry : moving) place(entry);
+            }
+            List<Entry> slot = slot(0, currentTick);
+            for (Entry entry : slot) expired.add(entry.key);
+            slot.clear();
+        }
+    }
+
+    //at most max expired keys, in order of expiry
+    public List<String> takeExpired(int max) {
+        List<String> keys = new ArrayList<>(Math.min(max, expired.size()));
+        while (keys.size() < max && !expired.isEmpty()) keys.add(expired.poll());
+        size -= keys.size();
+        return keys;
+    }
+
+    //keys waiting in the wheel or expired and not taken yet
+    public int size() {
+        return size;
+    }
+
+    private void place(Entry entry) {
+        long delta = entry.due - currentTick;
+        if (delta <= 0) {
+            expired.add(entry.key);
+            return;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) level++;
+        //beyond the top level, the key waits in the slot the top level has just passed, which is reached last
+        long tick = delta >= 1L << (SLOT_BITS * LEVELS) ? currentTick : entry.due;
+        slot(level, tick).add(entry);
+    }
+
+    private List<Entry> slot(int level, long tick) {
+        return wheels.get(level * SLOTS + (int) ((tick >>> (SLOT_BITS * level)) & (SLOTS - 1)));
+    }
+
+    private static final class Entry {
+        private final String key;
+        //tick of expiry
+        private final long due;
+
+        private Entry(String key, long due) {
+            this.key = key;
+            this.due = due;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package project;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.Behaviors;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the requests of the HTTP routes to the data node of this process through one long-lived actor, instead of
+ * one temporary actor and one scheduled timeout for each ask. Each request has a correlation id, which the data node
+ * returns with the answer ( see DataNode.Correlated): the actor completes the future waiting for it, looked up in a
+ * LongMap. The timeouts are kept by a timing wheel of akka.gateway.tick slots, advanced by one periodic timer.
+ */
+public class Gateway {
+    private final ActorRef<DataNode.Command> actor;
+    private final AtomicLong ids = new AtomicLong();
+
+    public Gateway(ActorRef<DataNode.Command> actor) {
+        this.actor = actor;
+    }
+
+    public CompletionStage<DataNode.Command> get(String key) {
+        long id = ids.incrementAndGet();
+        return register(id, new DataNode.GetRequest(key, actor, id));
+    }
+
+    public CompletionStage<DataNode.Command> put(String key, Value value) {
+        long id = ids.incrementAndGet();
+        return register(id, new DataNode.PutRequest(key, value, actor, id));
+    }
+
+    //a put applied only if the key has the expected version and writer, see DataNode.ConditionalPut
+    public CompletionStage<DataNode.Command> put(String key, Value value, long expectedVersion, long expectedWriter) {
+        long id = ids.incrementAndGet();
+        return register(id, new DataNode.PutRequest(key, value, actor, id, expectedVersion, expectedWriter));
+    }
+
+    public CompletionStage<DataNode.Command> update(String key, DataNode.Operation operation, long by, String operand) {
+        long id = ids.incrementAndGet();
+        return register(id, new DataNode.UpdateRequest(key, operation, by, operand, actor, id));
+    }
+
+    public CompletionStage<DataNode.Command> multiGet(List<String> keys) {
+        long id = ids.incrementAndGet();
+        return register(id, new DataNode.MultiGetRequest(keys, actor, id));
+    }
+
+    public CompletionStage<DataNode.Command> multiPut(Map<String, Value> entries) {
+        long id = ids.incrementAndGet();
+        return register(id, new DataNode.MultiPutRequest(entries, actor, id));
+    }
+
+    private CompletionStage<DataNode.Command> register(long id, DataNode.Command request) {
+        CompletableFuture<DataNode.Command> answer = new CompletableFuture<>();
+        actor.tell(new Register(id, answer, request));
+        return answer;
+    }
+
+    public static Behavior<DataNode.Command> create(ActorRef<DataNode.Command> dataNode) {
+        return Behaviors.withTimers(timers -> Behaviors.setup(context -> {
+            ActorSystem<?> system = context.getSystem();
+            Duration timeout = system.settings().config().getDuration("akka.routes.ask-timeout");
+            Duration tick = system.settings().config().getDuration("akka.gateway.tick");
+            timers.startTimerWithFixedDelay(Tick.INSTANCE, Tick.INSTANCE, tick);
+            return new Actor(dataNode, timeout, tick).behavior();
+        }));
+    }
+
+    //messages of the gateway actor, sent by the gateway itself
+    private static final class Register implements DataNode.Command {
+        private final long id;
+        private final CompletableFuture<DataNode.Command> answer;
+        private final DataNode.Command request;
+
+        private Register(long id, CompletableFuture<DataNode.Command> answer, DataNode.Command request) {
+            this.id = id;
+            this.answer = answer;
+            this.request = request;
+        }
+    }
+
+    private enum Tick implements DataNode.Command {
+        INSTANCE
+    }
+
+    private static final class Actor {
+        private final ActorRef<DataNode.Command> dataNode;
+        private final Duration timeout;
+        private final LongMap<CompletableFuture<DataNode.Command>> pending = new LongMap<>(1024);
+        //the ids expiring at each tick of the wheel, a request in slot i expires when the cursor reaches i
+        private final long[][] slots;
+        private final int[] slotSizes;
+        private int cursor = 0;
+
+        private Actor(ActorRef<DataNode.Command> dataNode, Duration timeout, Duration tick) {
+            this.dataNode = dataNode;
+            this.timeout = timeout;
+            //one slot more, so that a request never expires before the timeout
+            int ticks = (int) ((timeout.toNanos() + tick.toNanos() - 1) / tick.toNanos()) + 1;
+            slots = new long[ticks + 1][16];
+            slotSizes = new int[ticks + 1];
+        }
+
+        private Behavior<DataNode.Command> behavior() {
+            return Behaviors.receive(DataNode.Command.class)
+                    .onMessage(Register.class, this::onRegister)
+                    .onMessage(DataNode.Correlated.class, this::onCorrelated)
+                    .onMessageEquals(Tick.INSTANCE, this::onTick)
+                    .build();
+        }
+
+        private Behavior<DataNode.Command> onRegister(Register message) {
+            pending.put(message.id, message.answer);
+            int slot = (cursor + slots.length - 1) % slots.length;
+            if (slotSizes[slot] == slots[slot].length) slots[slot] = Arrays.copyOf(slots[slot], slots[slot].length * 2);
+            slots[slot][slotSizes[slot]++] = message.id;
+            dataNode.tell(message.request);
+            return Behaviors.same();
+        }
+
+        private Behavior<DataNode.Command> onCorrelated(DataNode.Correlated message) {
+            CompletableFuture<DataNode.Command> answer = pending.remove(message.correlationId);
+            //null if it has already timed out
+            if (answer != null) answer.complete(message.answer);
+            return Behaviors.same();
+        }
+
+        //failing the requests of the slot reached by the cursor: the ones already answered are not pending anymore
+        private Behavior<DataNode.Command> onTick() {
+            cursor = (cursor + 1) % slots.length;
+            long[] expiring = slots[cursor];
+            for (int i = 0; i < slotSizes[cursor]; i++) {
+                CompletableFuture<DataNode.Command> answer = pending.remove(expiring[i]);
+                if (answer != null) answer.completeExceptionally(new TimeoutException("no answer from the data node within " + timeout));
+            }
+            slotSizes[cursor] = 0;
+            if (slots[cursor].length > 1024) slots[cursor] = new long[16];
+            return Behaviors.same();
+        }
+    }
+}
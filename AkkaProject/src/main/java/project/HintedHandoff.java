@@ -0,0 +1,300 @@
+package project;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Writes accepted while one of the copies of a key could not be reached.
+ * A hint remembers the value that the successor successorId ( nReplicas for the leader) of the key
+ * has missed: hints are replayed in batches once that successor is part of the cluster again,
+ * and they are dropped only when the successor has acknowledged them.
+ * Hints are appended to a log file, so that they survive a restart of the node: an added hint is synced to the disk
+ * before the write is acknowledged, once for all the hints added by a batch ( see beginBatch). The log is rewritten
+ * with the live hints only once its dead records are more than COMPACTION_RATIO times the live ones.
+ * A write error does not stop the node: the hint is not acknowledged, and the log is rewritten before it is used again.
+ */
+public class HintedHandoff {
+
+    public static final class Hint {
+        public final String key;
+        public final Value value;
+        public final int successorId;
+        public final long token;
+        //when the hint has been replayed for the last time, 0 if it is not waiting for an acknowledgement
+        private long sentAt;
+
+        public Hint(String key, Value value, int successorId) {
+            this.key = key;
+            this.value = value;
+            this.successorId = successorId;
+            this.token = KeyToken.of(key);
+            this.sentAt = 0;
+        }
+
+        private String id() {
+            return successorId + ":" + key;
+        }
+    }
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    //how the value of a hint is written: the first two were a boolean
+    private static final byte TEXT = 0;
+    private static final byte COMPRESSED = 1;
+    private static final byte DELETED = 2;
+    private static final int COMPACTION_RATIO = 2;
+    //a small log is never compacted
+    private static final int COMPACTION_MIN_RECORDS = 1024;
+    private static final Logger logger = LoggerFactory.getLogger(HintedHandoff.class);
+
+    private final LinkedHashMap<String, Hint> hints = new LinkedHashMap<>();
+    private final HashMap<Integer, Hint> inFlight = new HashMap<>();
+    private final File file;
+    private final long retryAfter;
+    private DataOutputStream log;
+    private FileOutputStream logFile;
+    //the records in the log, the live hints included
+    private long records = 0;
+    //the batches in progress, and whether they have added hints not synced yet
+    private int batches = 0;
+    private boolean unsynced = false;
+    //a write has failed, so the end of the log may be missing or truncated
+    private boolean broken = false;
+    private long failedWrites = 0;
+
+    public HintedHandoff(File file, long retryAfter) throws IOException {
+        this.file = file;
+        this.retryAfter = retryAfter;
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            throw new IOException("cannot create the hints directory " + directory);
+        }
+        load();
+        rewrite();
+    }
+
+    //keeping only the newest value missed by each successor. Returns false if the hint may not be on the disk: it is
+    //kept and replayed anyway, but the write which hinted it must not be acknowledged
+    public boolean add(Hint hint) {
+        if (broken && !compact()) return false;
+        Hint current = hints.get(hint.id());
+        if (current != null && !hint.value.isNewerThan(current.value)) return true;
+        hints.put(hint.id(), hint);
+        return write(ADD, hint);
+    }
+
+    //the deliverable hints to replay now, at most size of them: the ones never sent and the ones not acknowledged in time
+    public List<Hint> nextBatch(int size, Predicate<Hint> deliverable) {
+        List<Hint> batch = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Hint hint : hints.values()) {
+            if (batch.size() == size) break;
+            if ((hint.sentAt == 0 || now - hint.sentAt > retryAfter) && deliverable.test(hint)) batch.add(hint);
+        }
+        return batch;
+    }
+
+    //remembering that the hint has been replayed with the given request id
+    public void sent(Hint hint, int requestId) {
+        hint.sentAt = System.currentTimeMillis();
+        inFlight.put(requestId, hint);
+    }
+
+    //dropping the hint acknowledged with the given request id, returns false if the id is not of a hint.
+    //A hint refused by its successor is kept, and replayed again after retryAfter
+    public boolean acknowledge(int requestId, boolean success) {
+        Hint hint = inFlight.remove(requestId);
+        if (hint == null) return false;
+        if (success) remove(hint);
+        return true;
+    }
+
+    //dropping a hint delivered without a round trip, e.g. because this node is now the successor
+    public void remove(Hint hint) {
+        //a newer value may have replaced the acknowledged one in the meantime
+        if (hints.get(hint.id()) != hint) return;
+        hints.remove(hint.id());
+        //a broken log is rewritten without the hint anyway
+        if (!broken) write(REMOVE, hint);
+        if (records - hints.size() > Math.max(COMPACTION_MIN_RECORDS, (long) COMPACTION_RATIO * hints.size())) compact();
+    }
+
+    //the hints added until the matching endBatch are synced to the disk together
+    public void beginBatch() {
+        batches++;
+    }
+
+    //returns false if the hints added by the batch may not be on the disk
+    public boolean endBatch() {
+        if (--batches > 0 || !unsynced) return true;
+        try {
+            sync();
+            return true;
+        } catch (IOException e) {
+            failed("sync", e);
+            return false;
+        }
+    }
+
+    public boolean isEmpty() {
+        return hints.isEmpty();
+    }
+
+    public int size() {
+        return hints.size();
+    }
+
+    public long getFailedWrites() {
+        return failedWrites;
+    }
+
+    //-----------------------------------------------------------------------------------------
+    //log file
+
+    private void load() throws IOException {
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                byte operation;
+                try {
+                    operation = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                Hint hint;
+                try {
+                    hint = readHint(in);
+                } catch (EOFException e) {
+                    //the last record has been truncated by a crash
+                    break;
+                }
+                if (operation == ADD) hints.put(hint.id(), hint);
+                else hints.remove(hint.id());
+                records++;
+            }
+        }
+    }
+
+    //rewriting the log with the live hints only: the new log replaces the old one only once it is on the disk,
+    //so that a crash in the middle leaves the old one
+    private void rewrite() throws IOException {
+        File compacted = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(compacted, false);
+             DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out))) {
+            for (Hint hint : hints.values()) {
+                data.writeByte(ADD);
+                writeHint(data, hint);
+            }
+            data.flush();
+            out.getFD().sync();
+        }
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                //the records not flushed yet are in the new log anyway
+            }
+        }
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logFile = new FileOutputStream(file, true);
+        log = new DataOutputStream(new BufferedOutputStream(logFile));
+        records = hints.size();
+        unsynced = false;
+        broken = false;
+    }
+
+    //returns false if the log could not be rewritten: it is tried again by the next write
+    private boolean compact() {
+        try {
+            rewrite();
+            return true;
+        } catch (IOException e) {
+            failed("rewrite", e);
+            return false;
+        }
+    }
+
+    //an added hint is synced at once, or at the end of the batch. A lost removal only replays a hint once more,
+    //so only the failure of an addition matters to the caller. Returns false if the record may not be on the disk
+    private boolean write(byte operation, Hint hint) {
+        try {
+            log.writeByte(operation);
+            writeHint(log, hint);
+            records++;
+            if (operation == ADD && batches > 0) unsynced = true;
+            else if (operation == ADD) sync();
+            else log.flush();
+            return true;
+        } catch (IOException e) {
+            failed(operation == ADD ? "write a hint to" : "write a removal to", e);
+            return false;
+        }
+    }
+
+    private void sync() throws IOException {
+        log.flush();
+        logFile.getFD().sync();
+        unsynced = false;
+    }
+
+    private void failed(String operation, IOException e) {
+        failedWrites++;
+        broken = true;
+        logger.error("Cannot " + operation + " the hints log " + file, e);
+    }
+
+    private static void writeHint(DataOutputStream out, Hint hint) throws IOException {
+        writeString(out, hint.key);
+        out.writeInt(hint.successorId);
+        out.writeByte(hint.value.isDeleted() ? DELETED : hint.value.compressed != null ? COMPRESSED : TEXT);
+        if (hint.value.compressed != null) {
+            out.writeInt(hint.value.compressed.length);
+            out.write(hint.value.compressed);
+        } else if (!hint.value.isDeleted()) {
+            writeString(out, hint.value.value);
+        }
+        out.writeLong(hint.value.version);
+        out.writeLong(hint.value.writer);
+        out.writeLong(hint.value.expiresAt);
+    }
+
+    private static Hint readHint(DataInputStream in) throws IOException {
+        String key = readString(in);
+        int successorId = in.readInt();
+        byte type = in.readByte();
+        byte[] compressed = null;
+        String value = null;
+        if (type == COMPRESSED) {
+            compressed = new byte[in.readInt()];
+            in.readFully(compressed);
+        } else if (type == TEXT) {
+            value = readString(in);
+        }
+        long version = in.readLong();
+        long writer = in.readLong();
+        long expiresAt = in.readLong();
+        Value hinted = type == DELETED ? Value.deleted(version, writer, expiresAt)
+                : type == COMPRESSED ? Value.compressed(compressed, version, writer, expiresAt) : new Value(value, version, writer, expiresAt);
+        return new Hint(key, hinted, successorId);
+    }
+
+    //writeUTF is limited to 64KB, values can be larger
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,84 @@
+package project;
+
+import java.util.*;
+
+/**
+ * Access frequency of the keys read through a node. A count-min sketch estimates how often each key has been read
+ * in fixed memory, and the keys whose estimate reaches the threshold are kept as heavy hitters, at most capacity.
+ * All the counters are halved every window reads, so a key which is not read anymore stops being hot.
+ * Not thread safe.
+ */
+public class HotKeys {
+    private final CountMinSketch sketch;
+    private final int threshold;
+    private final int capacity;
+    private final int window;
+    //the hot keys with their estimate when last read
+    private final HashMap<String, Integer> hitters = new HashMap<>();
+    private int reads = 0;
+
+    public HotKeys(int depth, int width, int threshold, int capacity, int window) {
+        this.sketch = new CountMinSketch(depth, width);
+        this.threshold = threshold;
+        this.capacity = capacity;
+        this.window = window;
+    }
+
+    //counting a read of the key, returns whether it is hot
+    public boolean record(String key, long token) {
+        if (++reads >= window) age();
+        int estimate = sketch.increment(token);
+        if (estimate < threshold) return false;
+        if (hitters.containsKey(key) || hitters.size() < capacity) {
+            hitters.put(key, estimate);
+            return true;
+        }
+        //the coldest heavy hitter leaves its place to the key if the key is hotter
+        Map.Entry<String, Integer> coldest = null;
+        for (Map.Entry<String, Integer> hitter : hitters.entrySet()) {
+            if (coldest == null || hitter.getValue() < coldest.getValue()) coldest = hitter;
+        }
+        if (coldest.getValue() >= estimate) return false;
+        hitters.remove(coldest.getKey());
+        hitters.put(key, estimate);
+        return true;
+    }
+
+    public boolean isHot(String key) {
+        return hitters.containsKey(key);
+    }
+
+    public int size() {
+        return hitters.size();
+    }
+
+    //the hot keys, the most read first
+    public List<HotKey> top() {
+        List<HotKey> top = new ArrayList<>();
+        for (Map.Entry<String, Integer> hitter : hitters.entrySet()) top.add(new HotKey(hitter.getKey(), hitter.getValue()));
+        top.sort((a, b) -> Integer.compare(b.reads, a.reads));
+        return top;
+    }
+
+    private void age() {
+        reads = 0;
+        sketch.age();
+        Iterator<Map.Entry<String, Integer>> iterator = hitters.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Integer> hitter = iterator.next();
+            hitter.setValue(hitter.getValue() >>> 1);
+            if (hitter.getValue() < threshold) iterator.remove();
+        }
+    }
+
+    public static final class HotKey {
+        public final String key;
+        //estimated reads, halved every window
+        public final int reads;
+
+        public HotKey(String key, int reads) {
+            this.key = key;
+            this.reads = reads;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package project;
+
+/**
+ * Hybrid logical clock used to version the values.
+ * A timestamp keeps the physical time in milliseconds in its 48 high bits and a logical counter
+ * in its 16 low bits, so that timestamps stay close to the wall clock but never go backwards and
+ * always follow the timestamps received from the other nodes.
+ * Two nodes can still produce the same timestamp: the node id is used to break the tie.
+ */
+public class HybridClock {
+    private static final int LOGICAL_BITS = 16;
+
+    private final long nodeId;
+    private long last;
+
+    public HybridClock(long nodeId) {
+        this.nodeId = nodeId;
+        this.last = 0;
+    }
+
+    //a new timestamp, greater than all the timestamps generated or observed so far
+    public long now() {
+        long physical = System.currentTimeMillis() << LOGICAL_BITS;
+        last = Math.max(last + 1, physical);
+        return last;
+    }
+
+    //merging a timestamp generated by another node
+    public void update(long timestamp) {
+        if (timestamp > last) last = timestamp;
+    }
+
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    public static long physicalTime(long timestamp) {
+        return timestamp >>> LOGICAL_BITS;
+    }
+
+    //total order among versions: the timestamp first, then the node which has generated it
+    public static int compare(long version, long writer, long otherVersion, long otherWriter) {
+        int result = Long.compare(version, otherVersion);
+        return result != 0 ? result : Long.compare(writer, otherWriter);
+    }
+}
@@ -0,0 +1,85 @@
+package project;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 64-bit token of a key, which decides the leader of the key: the first half of the MurmurHash3 x64 128-bit hash
+ * of its UTF-8 bytes. Unlike String.hashCode(), similar keys like user:1 ... user:999 are spread uniformly.
+ * The token is computed once by the node contacted by the client and travels with the Get and Put messages.
+ */
+public final class KeyToken {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private KeyToken() {
+    }
+
+    public static long of(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length;
+        long h1 = 0;
+        long h2 = 0;
+        int blocks = length / 16;
+        for (int i = 0; i < blocks; i++) {
+            long k1 = getLong(bytes, i * 16);
+            long k2 = getLong(bytes, i * 16 + 8);
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        //the last 0 to 15 bytes
+        long k1 = 0;
+        long k2 = 0;
+        int tail = blocks * 16;
+        for (int i = length - 1; i >= tail; i--) {
+            long b = bytes[i] & 0xFFL;
+            if (i - tail >= 8) k2 |= b << ((i - tail - 8) * 8);
+            else k1 |= b << ((i - tail) * 8);
+        }
+        if (length - tail > 8) h2 ^= mixK2(k2);
+        if (length - tail > 0) h1 ^= mixK1(k1);
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        return h1 + h2;
+    }
+
+    //little endian, as the reference implementation
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = (value << 8) | (bytes[offset + i] & 0xFFL);
+        }
+        return value;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,124 @@
+package project;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from positive long keys to objects, with the keys in a primitive array: no boxing and no entry object
+ * for each mapping. Open addressing with linear probing, removals shift back the following entries of the run.
+ * Not thread safe.
+ */
+public class LongMap<V> {
+    //0 marks a free slot
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+
+    public LongMap() {
+        this(16);
+    }
+
+    public LongMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return (V) values[slot];
+        }
+        return null;
+    }
+
+    //the previous value of the key, null if there was none
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key <= 0) throw new IllegalArgumentException("keys must be positive: " + key);
+        int slot = slot(key);
+        for (; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        //at most half full, to keep the runs short
+        if (size * 2 > keys.length) resize(keys.length * 2);
+        return null;
+    }
+
+    //the removed value, null if the key was not there
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int slot = slot(key);
+        for (; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                V removed = (V) values[slot];
+                shiftBack(slot);
+                size--;
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    //moving back into the free slot the following entries of the run which would not be found otherwise
+    private void shiftBack(int free) {
+        int slot = free;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (keys[slot] == 0) break;
+            int home = slot(keys[slot]);
+            //the entry stays if its home is cyclically in (free, slot]
+            if (free <= slot ? free < home && home <= slot : free < home || home <= slot) continue;
+            keys[free] = keys[slot];
+            values[free] = values[slot];
+            free = slot;
+        }
+        keys[free] = 0;
+        values[free] = null;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0) continue;
+            int slot = slot(oldKeys[i]);
+            while (keys[slot] != 0) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    //the fmix64 finalizer of MurmurHash3, see KeyToken: consecutive ids land far apart
+    private int slot(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+}
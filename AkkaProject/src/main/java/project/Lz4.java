@@ -0,0 +1,145 @@
+package project;
+
+import java.util.Arrays;
+
+/**
+ * Compression of byte arrays in the LZ4 block format, in plain Java: a sequence is a token ( the lengths of its
+ * literals and of its match, 4 bits each, longer ones continued in extra bytes), the literals, and the 2-byte offset
+ * back to the match. Matches of at least 4 bytes are found through a hash table of the last position of each 4-byte
+ * prefix, with no search: fast rather than small, like LZ4.
+ * The compressed array starts with the length of the original one in 4 bytes.
+ */
+public final class Lz4 {
+    private static final int HASH_BITS = 12;
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    //the last 5 bytes are always literals, and the last match starts at least 12 bytes before the end
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    //after 2^SKIP_TRIGGER misses in a row the search steps over more bytes, incompressible data is not slowed down
+    private static final int SKIP_TRIGGER = 6;
+
+    private Lz4() {
+    }
+
+    public static byte[] compress(byte[] source) {
+        int length = source.length;
+        byte[] target = new byte[4 + length + length / 255 + 16];
+        writeIntBE(target, 0, length);
+        int out = 4;
+        //positions plus one, 0 is an empty slot
+        int[] table = new int[1 << HASH_BITS];
+        int anchor = 0;
+        int position = 0;
+        int misses = 0;
+        while (position < length - MATCH_FIND_LIMIT) {
+            int sequence = readIntLE(source, position);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int match = table[hash] - 1;
+            table[hash] = position + 1;
+            if (match < 0 || position - match > MAX_OFFSET || readIntLE(source, match) != sequence) {
+                position += 1 + (misses++ >>> SKIP_TRIGGER);
+                continue;
+            }
+            misses = 0;
+            while (position > anchor && match > 0 && source[position - 1] == source[match - 1]) {
+                position--;
+                match--;
+            }
+            int matchLength = MIN_MATCH;
+            while (position + matchLength < length - LAST_LITERALS && source[position + matchLength] == source[match + matchLength]) {
+                matchLength++;
+            }
+            out = writeSequence(target, out, source, anchor, position - anchor, position - match, matchLength);
+            position += matchLength;
+            anchor = position;
+        }
+        out = writeSequence(target, out, source, anchor, length - anchor, 0, 0);
+        return Arrays.copyOf(target, out);
+    }
+
+    public static byte[] decompress(byte[] source) {
+        byte[] target = new byte[readIntBE(source, 0)];
+        int in = 4;
+        int out = 0;
+        while (in < source.length) {
+            int token = source[in++] & 0xFF;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int extra;
+                do {
+                    extra = source[in++] & 0xFF;
+                    literals += extra;
+                } while (extra == 255);
+            }
+            System.arraycopy(source, in, target, out, literals);
+            in += literals;
+            out += literals;
+            //the last sequence has no match
+            if (in == source.length) break;
+            int offset = (source[in++] & 0xFF) | (source[in++] & 0xFF) << 8;
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int extra;
+                do {
+                    extra = source[in++] & 0xFF;
+                    matchLength += extra;
+                } while (extra == 255);
+            }
+            matchLength += MIN_MATCH;
+            int match = out - offset;
+            if (offset <= 0 || match < 0) throw new IllegalArgumentException("corrupted LZ4 block at " + in);
+            if (offset >= matchLength) {
+                System.arraycopy(target, match, target, out, matchLength);
+                out += matchLength;
+            } else {
+                //the match overlaps the bytes it produces, e.g. a run of the same byte
+                for (int i = 0; i < matchLength; i++) target[out++] = target[match + i];
+            }
+        }
+        if (out != target.length) throw new IllegalArgumentException("corrupted LZ4 block: " + out + " bytes instead of " + target.length);
+        return target;
+    }
+
+    //a match length of 0 writes the last literals only
+    private static int writeSequence(byte[] target, int out, byte[] source, int from, int literals, int offset, int matchLength) {
+        int tokenPosition = out++;
+        int token = Math.min(literals, 15) << 4;
+        if (literals >= 15) out = writeLength(target, out, literals - 15);
+        System.arraycopy(source, from, target, out, literals);
+        out += literals;
+        if (matchLength > 0) {
+            target[out++] = (byte) offset;
+            target[out++] = (byte) (offset >>> 8);
+            int extra = matchLength - MIN_MATCH;
+            token |= Math.min(extra, 15);
+            if (extra >= 15) out = writeLength(target, out, extra - 15);
+        }
+        target[tokenPosition] = (byte) token;
+        return out;
+    }
+
+    private static int writeLength(byte[] target, int out, int length) {
+        while (length >= 255) {
+            target[out++] = (byte) 255;
+            length -= 255;
+        }
+        target[out++] = (byte) length;
+        return out;
+    }
+
+    private static int readIntLE(byte[] bytes, int position) {
+        return (bytes[position] & 0xFF) | (bytes[position + 1] & 0xFF) << 8 | (bytes[position + 2] & 0xFF) << 16 | (bytes[position + 3] & 0xFF) << 24;
+    }
+
+    private static int readIntBE(byte[] bytes, int position) {
+        return (bytes[position] & 0xFF) << 24 | (bytes[position + 1] & 0xFF) << 16 | (bytes[position + 2] & 0xFF) << 8 | (bytes[position + 3] & 0xFF);
+    }
+
+    private static void writeIntBE(byte[] bytes, int position, int value) {
+        bytes[position] = (byte) (value >>> 24);
+        bytes[position + 1] = (byte) (value >>> 16);
+        bytes[position + 2] = (byte) (value >>> 8);
+        bytes[position + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,70 @@
+package project;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The newest copies of the hot keys read by a coordinator, answered without contacting the copies for at most ttl.
+ * The copies which served the reads push an invalidation when the key is written ( see DataNode.Invalidate), the ttl
+ * only bounds how stale an entry can be if the invalidation is lost.
+ * Not thread safe.
+ */
+public class NearCache {
+    private final HashMap<String, Entry> entries = new HashMap<>();
+    private final long ttl;
+
+    public NearCache(long ttlNanos) {
+        this.ttl = ttlNanos;
+    }
+
+    //the cached answer of the key, null if it is missing or expired
+    public DataNode.GetAnswer get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) return null;
+        if (System.nanoTime() - entry.cachedAt >= ttl || (entry.answer.expiresAt != Value.NEVER && entry.answer.expiresAt <= System.currentTimeMillis())) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.answer;
+    }
+
+    public void put(String key, DataNode.GetAnswer answer) {
+        entries.put(key, new Entry(answer, System.nanoTime()));
+    }
+
+    public void invalidate(String key) {
+        entries.remove(key);
+    }
+
+    //dropping the entry if the written version is newer than the cached one
+    public boolean invalidate(String key, long version, long writer) {
+        Entry entry = entries.get(key);
+        if (entry == null) return false;
+        if (entry.answer.isPresent && HybridClock.compare(entry.answer.version, entry.answer.writer, version, writer) >= 0) return false;
+        entries.remove(key);
+        return true;
+    }
+
+    public void removeExpired() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().getValue().cachedAt >= ttl) iterator.remove();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static final class Entry {
+        private final DataNode.GetAnswer answer;
+        private final long cachedAt;
+
+        private Entry(DataNode.GetAnswer answer, long cachedAt) {
+            this.answer = answer;
+            this.cachedAt = cachedAt;
+        }
+    }
+}
@@ -4,10 +4,14 @@ import akka.actor.typed.ActorRef;
 
 public class NodeInfo {
     private final String hashKey;
+    //position of the node on the ring of the key tokens, see KeyToken: the first 64 bits of its hash, unsigned,
+    //so nodes sorted by hashKey are sorted by token too
+    private final long token;
     private final ActorRef<DataNode.Command> node;
 
     public NodeInfo(String hashKey, ActorRef<DataNode.Command> node) {
         this.hashKey = hashKey;
+        this.token = Long.parseUnsignedLong(hashKey.substring(0, 16), 16);
         this.node = node;
     }
 
@@ -15,6 +19,10 @@ public class NodeInfo {
         return hashKey;
     }
 
+    public long getToken() {
+        return token;
+    }
+
     public ActorRef<DataNode.Command> getNode() {
         return node;
     }
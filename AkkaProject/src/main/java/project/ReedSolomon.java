@@ -0,0 +1,169 @@
+package project;
+
+import java.util.Arrays;
+
+/**
+ * Reed-Solomon erasure code over GF(2^8): a byte array is split into dataShards shards of equal size, and
+ * parityShards more shards are computed so that any dataShards of all of them rebuild the array.
+ * The code is systematic: the data shards are the array itself, cut in pieces. The encoding matrix is a Vandermonde
+ * matrix ( any dataShards of its rows are independent) multiplied by the inverse of its top square, so that the top
+ * square becomes the identity while any dataShards rows stay independent.
+ */
+public class ReedSolomon {
+    //the field is built on the polynomial x^8 + x^4 + x^3 + x^2 + 1
+    private static final int POLYNOMIAL = 0x11D;
+    private static final int[] EXP = new int[512];
+    private static final int[] LOG = new int[256];
+    private static final byte[][] MULTIPLY = new byte[256][256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if ((x & 0x100) != 0) x ^= POLYNOMIAL;
+        }
+        for (int i = 255; i < EXP.length; i++) EXP[i] = EXP[i - 255];
+        for (int a = 0; a < 256; a++) {
+            for (int b = 0; b < 256; b++) MULTIPLY[a][b] = (byte) multiply(a, b);
+        }
+    }
+
+    private final int dataShards;
+    private final int parityShards;
+    //one row for each shard, dataShards columns
+    private final int[][] matrix;
+
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards < 1 || parityShards < 0 || dataShards + parityShards > 256) {
+            throw new IllegalArgumentException("unsupported code with " + dataShards + " data shards and " + parityShards + " parity shards");
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+        int[][] vandermonde = new int[dataShards + parityShards][dataShards];
+        for (int row = 0; row < vandermonde.length; row++) {
+            for (int column = 0; column < dataShards; column++) vandermonde[row][column] = power(row, column);
+        }
+        this.matrix = multiply(vandermonde, invert(Arrays.copyOf(vandermonde, dataShards)));
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    //the dataShards + parityShards shards of the bytes, the data ones padded with zeros to the same size
+    public byte[][] encode(byte[] bytes) {
+        int shardSize = Math.max(1, (bytes.length + dataShards - 1) / dataShards);
+        byte[][] shards = new byte[dataShards + parityShards][shardSize];
+        for (int i = 0; i < dataShards; i++) {
+            int from = i * shardSize;
+            if (from < bytes.length) System.arraycopy(bytes, from, shards[i], 0, Math.min(shardSize, bytes.length - from));
+        }
+        for (int p = 0; p < parityShards; p++) {
+            byte[] parity = shards[dataShards + p];
+            for (int d = 0; d < dataShards; d++) multiplyAdd(MULTIPLY[matrix[dataShards + p][d]], shards[d], parity);
+        }
+        return shards;
+    }
+
+    //the original length bytes from the shards, null where a shard is missing; at least dataShards must be there
+    public byte[] decode(byte[][] shards, int length) {
+        int[] present = new int[dataShards];
+        int found = 0;
+        int shardSize = -1;
+        for (int i = 0; i < shards.length && found < dataShards; i++) {
+            if (shards[i] == null) continue;
+            present[found++] = i;
+            shardSize = shards[i].length;
+        }
+        if (found < dataShards) throw new IllegalArgumentException("only " + found + " shards of the " + dataShards + " needed");
+        byte[][] data = new byte[dataShards][];
+        boolean systematic = true;
+        for (int i = 0; i < dataShards; i++) systematic &= present[i] == i;
+        if (systematic) {
+            for (int i = 0; i < dataShards; i++) data[i] = shards[i];
+        } else {
+            //the rows of the shards found map the data to them: their inverse maps them back to the data
+            int[][] rows = new int[dataShards][];
+            for (int i = 0; i < dataShards; i++) rows[i] = matrix[present[i]];
+            int[][] decoding = invert(rows);
+            for (int d = 0; d < dataShards; d++) {
+                data[d] = new byte[shardSize];
+                for (int i = 0; i < dataShards; i++) multiplyAdd(MULTIPLY[decoding[d][i]], shards[present[i]], data[d]);
+            }
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < dataShards; i++) {
+            int from = i * shardSize;
+            if (from < length) System.arraycopy(data[i], 0, bytes, from, Math.min(shardSize, length - from));
+        }
+        return bytes;
+    }
+
+    //target += coefficient * source, the coefficient given by its row of the multiplication table
+    private static void multiplyAdd(byte[] coefficient, byte[] source, byte[] target) {
+        for (int i = 0; i < target.length; i++) target[i] ^= coefficient[source[i] & 0xFF];
+    }
+
+    //----------------------------------------------------------------------------------
+    //arithmetic of GF(2^8): addition is xor
+
+    private static int multiply(int a, int b) {
+        return a == 0 || b == 0 ? 0 : EXP[LOG[a] + LOG[b]];
+    }
+
+    private static int inverse(int a) {
+        return EXP[255 - LOG[a]];
+    }
+
+    private static int power(int a, int n) {
+        if (n == 0) return 1;
+        if (a == 0) return 0;
+        return EXP[(LOG[a] * n) % 255];
+    }
+
+    private static int[][] multiply(int[][] left, int[][] right) {
+        int[][] result = new int[left.length][right[0].length];
+        for (int r = 0; r < left.length; r++) {
+            for (int c = 0; c < right[0].length; c++) {
+                int sum = 0;
+                for (int i = 0; i < right.length; i++) sum ^= multiply(left[r][i], right[i][c]);
+                result[r][c] = sum;
+            }
+        }
+        return result;
+    }
+
+    //Gauss-Jordan elimination of a square matrix next to the identity
+    private static int[][] invert(int[][] square) {
+        int size = square.length;
+        int[][] work = new int[size][2 * size];
+        for (int r = 0; r < size; r++) {
+            System.arraycopy(square[r], 0, work[r], 0, size);
+            work[r][size + r] = 1;
+        }
+        for (int column = 0; column < size; column++) {
+            int pivot = column;
+            while (pivot < size && work[pivot][column] == 0) pivot++;
+            if (pivot == size) throw new IllegalArgumentException("singular matrix");
+            int[] swap = work[pivot];
+            work[pivot] = work[column];
+            work[column] = swap;
+            int scale = inverse(work[column][column]);
+            for (int c = 0; c < 2 * size; c++) work[column][c] = multiply(work[column][c], scale);
+            for (int r = 0; r < size; r++) {
+                if (r == column || work[r][column] == 0) continue;
+                int factor = work[r][column];
+                for (int c = 0; c < 2 * size; c++) work[r][c] ^= multiply(factor, work[column][c]);
+            }
+        }
+        int[][] inverse = new int[size][size];
+        for (int r = 0; r < size; r++) System.arraycopy(work[r], size, inverse[r], 0, size);
+        return inverse;
+    }
+}
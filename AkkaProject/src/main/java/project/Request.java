@@ -2,13 +2,53 @@ package project;
 
 import akka.actor.typed.ActorRef;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
 public class Request {
     private int counter;
     public final ActorRef<DataNode.Command> requester;
+    //the id the requester is waiting for in the answer
+    public final int requestId;
+    //the id the client waits for if it is a Gateway, 0 otherwise
+    public final long correlationId;
+    //the multi get or multi put this request is part of, null if it has been sent on its own
+    public final Request parent;
+    //answers collected so far by a read, used to pick the newest version and to repair stale replicas
+    private final List<DataNode.GetAnswer> answers = new LinkedList<>();
+    //the GET requests of the same key which wait for the answer of this one, see DataNode.onGetRequest
+    private List<Request> followers = null;
+    public final long startedAt = System.nanoTime();
+    //the copies have been read with watch, so the answer can be kept in the near cache
+    private boolean watched = false;
+    //the value of a conditional put or of an update, answered with its version once written
+    private Value written = null;
+    //the answer of an update has the value as well
+    private boolean answersValue = false;
+    //one of the copies could not be written, or its hint could not be kept: the request is answered as failed
+    private boolean failed = false;
+
+    public Request ( int counter, ActorRef<DataNode.Command> requester, int requestId){
+        this(counter, requester, requestId, 0);
+    }
 
-    public Request ( int counter, ActorRef<DataNode.Command> requester){
+    public Request ( int counter, ActorRef<DataNode.Command> requester, int requestId, long correlationId){
         this.counter = counter;
         this.requester = requester;
+        this.requestId = requestId;
+        this.correlationId = correlationId;
+        this.parent = null;
+    }
+
+    //a request for one of the keys of a multi get or multi put: the parent counts the keys still to complete
+    public Request (int counter, Request parent){
+        this.counter = counter;
+        this.requester = parent.requester;
+        this.requestId = parent.requestId;
+        this.correlationId = parent.correlationId;
+        this.parent = parent;
     }
 
     public int getCounter() {
@@ -18,4 +58,64 @@ public class Request {
     public void setCounter(int counter) {
         this.counter = counter;
     }
+
+    public void addAnswer(DataNode.GetAnswer answer){
+        answers.add(answer);
+    }
+
+    public List<DataNode.GetAnswer> getAnswers(){
+        return answers;
+    }
+
+    public boolean isWatched(){
+        return watched;
+    }
+
+    public void setWatched(boolean watched){
+        this.watched = watched;
+    }
+
+    public Value getWritten(){
+        return written;
+    }
+
+    public boolean answersValue(){
+        return answersValue;
+    }
+
+    public void setWritten(Value written, boolean answersValue){
+        this.written = written;
+        this.answersValue = answersValue;
+    }
+
+    public boolean isFailed(){
+        return failed;
+    }
+
+    public void fail(){
+        failed = true;
+    }
+
+    public void addFollower(Request follower){
+        if (followers == null) followers = new ArrayList<>();
+        followers.add(follower);
+    }
+
+    public List<Request> getFollowers(){
+        return followers == null ? Collections.emptyList() : followers;
+    }
+
+    //the answer with the highest version, present or deleted, or any answer if the key is nowhere: a copy which could
+    //not be read is the answer only if none could
+    public DataNode.GetAnswer getNewest(){
+        DataNode.GetAnswer newest = null;
+        //the missing copies have no version, the deleted ones have the version of the delete
+        for (DataNode.GetAnswer answer : answers){
+            if (newest == null || (newest.error != null && answer.error == null)
+                    || (answer.error == null && HybridClock.compare(answer.version, answer.writer, newest.version, newest.writer) > 0)){
+                newest = answer;
+            }
+        }
+        return newest;
+    }
 }
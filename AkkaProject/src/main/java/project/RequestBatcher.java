@@ -0,0 +1,118 @@
+package project;
+
+import akka.Done;
+import akka.actor.typed.ActorSystem;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.QueueOfferResult;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Collects the GET and PUT requests of the concurrent HTTP connections into batches: each batch is sent to the
+ * data node as one multi get and one multi put, with one correlation id instead of one for each request, and the answers are
+ * routed back to each waiting request by key.
+ * The requests are batched only while the data node is busy: a batch leaves as soon as one of the
+ * akka.batching.parallelism batches in flight completes, so an idle node adds no delay.
+ */
+public class RequestBatcher {
+    private final Gateway gateway;
+    private final SourceQueueWithComplete<Pending> queue;
+
+    public RequestBatcher(ActorSystem<?> system, Gateway gateway) {
+        this.gateway = gateway;
+        int bufferSize = system.settings().config().getInt("akka.batching.buffer-size");
+        int maxSize = system.settings().config().getInt("akka.batching.max-size");
+        int parallelism = system.settings().config().getInt("akka.batching.parallelism");
+        queue = Source.<Pending>queue(bufferSize, OverflowStrategy.dropNew())
+                .batch(maxSize, pending -> {
+                    List<Pending> batch = new ArrayList<>();
+                    batch.add(pending);
+                    return batch;
+                }, (batch, pending) -> {
+                    batch.add(pending);
+                    return batch;
+                })
+                .mapAsyncUnordered(parallelism, this::send)
+                .to(Sink.ignore())
+                .run(Materializer.matFromSystem(system));
+    }
+
+    public CompletionStage<DataNode.Command> get(String key) {
+        return offer(new Pending(key, null));
+    }
+
+    public CompletionStage<DataNode.Command> put(String key, Value value) {
+        return offer(new Pending(key, value));
+    }
+
+    private CompletionStage<DataNode.Command> offer(Pending pending) {
+        return queue.offer(pending).thenCompose(result -> {
+            if (result != QueueOfferResult.enqueued()) {
+                pending.answer.completeExceptionally(new IllegalStateException("too many requests waiting: " + result));
+            }
+            return pending.answer;
+        });
+    }
+
+    //a batch of one request is sent as it is, to keep its own answer
+    private CompletionStage<Done> send(List<Pending> batch) {
+        List<Pending> gets = new ArrayList<>();
+        List<Pending> puts = new ArrayList<>();
+        for (Pending pending : batch) (pending.value == null ? gets : puts).add(pending);
+        List<CompletableFuture<Void>> sent = new ArrayList<>();
+        if (gets.size() == 1) {
+            sent.add(complete(gets, gateway.get(gets.get(0).key)));
+        } else if (!gets.isEmpty()) {
+            Set<String> keys = new LinkedHashSet<>();
+            for (Pending pending : gets) keys.add(pending.key);
+            sent.add(complete(gets, gateway.multiGet(new ArrayList<>(keys))));
+        }
+        if (puts.size() == 1) {
+            sent.add(complete(puts, gateway.put(puts.get(0).key, puts.get(0).value)));
+        } else if (!puts.isEmpty()) {
+            //the puts of the same key are concurrent, the last one wins as if they had arrived in this order
+            Map<String, Value> entries = new LinkedHashMap<>();
+            for (Pending pending : puts) entries.put(pending.key, pending.value);
+            sent.add(complete(puts, gateway.multiPut(entries)));
+        }
+        return CompletableFuture.allOf(sent.toArray(new CompletableFuture<?>[0])).thenApply(done -> Done.getInstance());
+    }
+
+    //completing each request with its own answer: the answer of its key for a multi get, the only one otherwise
+    private CompletableFuture<Void> complete(List<Pending> batch, CompletionStage<DataNode.Command> asked) {
+        return asked.handle((answer, failure) -> {
+            Map<String, DataNode.GetAnswer> answers = new HashMap<>();
+            if (answer instanceof DataNode.MultiGetAnswer) {
+                for (DataNode.GetAnswer getAnswer : ((DataNode.MultiGetAnswer) answer).answers) answers.put(getAnswer.key, getAnswer);
+            }
+            for (Pending pending : batch) {
+                if (failure != null) pending.answer.completeExceptionally(failure);
+                else if (answer instanceof DataNode.MultiGetAnswer) {
+                    DataNode.GetAnswer getAnswer = answers.get(pending.key);
+                    if (getAnswer != null) pending.answer.complete(getAnswer);
+                    else pending.answer.completeExceptionally(new IllegalStateException("no answer for the key " + pending.key));
+                }
+                else pending.answer.complete(answer);
+            }
+            return (Void) null;
+        }).toCompletableFuture();
+    }
+
+    private static final class Pending {
+        private final String key;
+        //null for a get
+        private final Value value;
+        private final CompletableFuture<DataNode.Command> answer = new CompletableFuture<>();
+
+        private Pending(String key, Value value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package project;
+
+import akka.NotUsed;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Scheduler;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.japi.Pair;
+import akka.stream.javadsl.Source;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Streams of the copies stored by the data nodes in key order, read one page at a time ( see DataNode.ExportPage)
+ * only when the downstream asks for more. A range goes from a first key, included or not, to a last key excluded:
+ * null bounds are open.
+ */
+public class Scanner {
+    private final Duration askTimeout;
+    private final Scheduler scheduler;
+
+    public Scanner(ActorSystem<?> system) {
+        scheduler = system.scheduler();
+        askTimeout = system.settings().config().getDuration("akka.routes.ask-timeout");
+    }
+
+    //the copies of a single node, pages of at most pageLimit keys
+    public Source<DataNode.ExportRecord, NotUsed> node(ActorRef<DataNode.Command> dataNode, String from, boolean fromInclusive,
+                                                      String to, boolean leaderOnly, int pageLimit) {
+        return Source.unfoldAsync(new Cursor(from, fromInclusive, false), state -> {
+            if (state.done) return CompletableFuture.completedFuture(Optional.empty());
+            return AskPattern.<DataNode.Command, DataNode.Command>ask(dataNode,
+                    ref -> new DataNode.ExportPage(state.key, state.inclusive, to, pageLimit, leaderOnly, ref), askTimeout, scheduler)
+                    .thenApply(answer -> {
+                        DataNode.ExportPageAnswer page = (DataNode.ExportPageAnswer) answer;
+                        //the next page starts after the last key received
+                        Cursor next = page.records.isEmpty() ? new Cursor(state.key, state.inclusive, true) :
+                                new Cursor(page.records.get(page.records.size() - 1).key, false, page.last);
+                        return Optional.of(Pair.create(next, page.records));
+                    });
+        }).mapConcat(records -> records);
+    }
+
+    //the leader copies of all the nodes of the cluster, which the given node knows, merged in key order
+    public Source<DataNode.ExportRecord, NotUsed> cluster(ActorRef<DataNode.Command> dataNode, String from, boolean fromInclusive,
+                                                         String to, int pageLimit) {
+        return Source.completionStage(AskPattern.<DataNode.Command, DataNode.Command>ask(dataNode,
+                ref -> new DataNode.GetNodesRequest(ref), askTimeout, scheduler))
+                .flatMapConcat(answer -> {
+                    Source<DataNode.ExportRecord, NotUsed> merged = Source.empty();
+                    for (NodeInfo nodeInfo : ((DataNode.GetNodesAnswer) answer).nodes) {
+                        merged = merged.mergeSorted(node(nodeInfo.getNode(), from, fromInclusive, to, true, pageLimit),
+                                Comparator.comparing(record -> record.key));
+                    }
+                    return merged;
+                });
+    }
+
+    //the first key after all the keys starting with the prefix, null if there is none
+    public static String prefixEnd(String prefix) {
+        int end = prefix.length();
+        while (end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) end--;
+        if (end == 0) return null;
+        return prefix.substring(0, end - 1) + (char) (prefix.charAt(end - 1) + 1);
+    }
+
+    private static final class Cursor {
+        private final String key;
+        private final boolean inclusive;
+        private final boolean done;
+
+        private Cursor(String key, boolean inclusive, boolean done) {
+            this.key = key;
+            this.inclusive = inclusive;
+            this.done = done;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package project;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * One of the dataShards + parityShards pieces of an erasure coded value ( see ReedSolomon), with the version of the
+ * value: any dataShards shards of the same version rebuild it. The value is coded as its UTF-8 bytes, or as its
+ * compressed bytes if it is compressed.
+ */
+public class Shard {
+    public final int index;
+    public final int dataShards;
+    public final int parityShards;
+    //length of the coded bytes
+    public final int length;
+    public final boolean compressed;
+    public final byte[] bytes;
+    public final long version;
+    public final long writer;
+    public final long expiresAt;
+
+    @JsonCreator
+    public Shard(@JsonProperty("index") int index, @JsonProperty("dataShards") int dataShards, @JsonProperty("parityShards") int parityShards,
+                 @JsonProperty("length") int length, @JsonProperty("compressed") boolean compressed, @JsonProperty("bytes") byte[] bytes,
+                 @JsonProperty("version") long version, @JsonProperty("writer") long writer, @JsonProperty("expiresAt") long expiresAt) {
+        this.index = index;
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+        this.length = length;
+        this.compressed = compressed;
+        this.bytes = bytes;
+        this.version = version;
+        this.writer = writer;
+        this.expiresAt = expiresAt;
+    }
+
+    public boolean isExpired(long nowMillis) {
+        return expiresAt != Value.NEVER && expiresAt <= nowMillis;
+    }
+
+    public boolean sameVersion(long version, long writer) {
+        return this.version == version && this.writer == writer;
+    }
+
+    //whether this shard belongs to a newer version than the value
+    public boolean isNewerThan(Value value) {
+        return HybridClock.compare(version, writer, value.version, value.writer) > 0;
+    }
+}
@@ -0,0 +1,830 @@
+package project;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+/**
+ * The copies of a node ( its leader copies or its replicas) within a memory budget in bytes, the rest on disk.
+ * The memory tier is a W-TinyLFU cache: new entries wait in a small LRU window, and when the window is full its
+ * oldest entry enters the main part only if it has been used more often than the entry the main part would give up,
+ * as estimated by a count-min sketch of all the accesses. The main part is a segmented LRU, the entries used again
+ * while in probation move to the protected segment.
+ * The entries leaving memory are spilled: gathered in a sorted buffer and written as an immutable sorted segment file
+ * once the buffer reaches segmentBytes. A GET of a spilled key reads the newest segment having it and brings it back
+ * to memory. Removing a key which may be on disk writes a tombstone, and the segments are merged into one when they
+ * are more than maxSegments, dropping the shadowed, removed and expired copies.
+ * Each segment has a Bloom filter of its keys, kept in memory only, so that a GET of a key missing
+ * from a segment does not read it in most cases; the filters are built again with the segments merged.
+ * A range scan merges the keys in memory, sorted for each scan, with the spilled ones and with the segments, each
+ * read from the block of the first key in the range. An ordered store keeps its keys in memory in a sorted set
+ * instead, counted against the budget: it follows the memory tier, so it never holds the keys on disk.
+ * The store counts its keys, the ones on disk included, so that size never reads the disk.
+ * A segment which cannot be written stays in memory and is written again with the next one. A GET of a key whose
+ * segment cannot be read fails, the other reads of it go without its copy on disk.
+ * The disk tier only extends the memory: the segments are deleted when the node starts. A budget of 0 keeps
+ * everything in memory. Not thread safe.
+ */
+public class Store {
+    private static final Logger log = LoggerFactory.getLogger(Store.class);
+    //the sparse index of a segment keeps one key every INDEX_INTERVAL records
+    private static final int INDEX_INTERVAL = 16;
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+    //the memory taken by a key in the index, a node of the tree: the key and its entry are weighed with the entry
+    private static final int INDEX_NODE_BYTES = 40;
+    private static final byte LIVE = 1;
+    private static final byte TOMBSTONE = 2;
+    private static final byte COMPRESSED = 3;
+    //a deleted value ( see Value.deleted), versioned unlike a TOMBSTONE of the store
+    private static final byte DELETED = 4;
+    //a removed key in the spill buffer
+    private static final Value REMOVED = new Value(null, Value.UNASSIGNED, 0);
+
+    private final String name;
+    private final File directory;
+    private final long budget;
+    private final long windowBudget;
+    private final long protectedBudget;
+    private final long segmentBytes;
+    private final int maxSegments;
+    private final int bloomBitsPerKey;
+
+    //the entries in memory in key order, null if the store is not ordered
+    private final TreeMap<String, Entry> index;
+    private long indexBytes = 0;
+    //the keys with a copy, in memory or on disk
+    private int keyCount = 0;
+
+    //the memory tier, each queue from the least to the most recently used
+    private final LinkedHashMap<String, Entry> window = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry> protectedSegment = new LinkedHashMap<>();
+    private long windowBytes = 0;
+    private long probationBytes = 0;
+    private long protectedBytes = 0;
+    private final CountMinSketch sketch;
+    private final int sampleSize;
+    private int samples = 0;
+
+    //the disk tier: the spilled entries not written yet, and the segments from the oldest to the newest
+    private final TreeMap<String, Value> spilled = new TreeMap<>();
+    private long spilledBytes = 0;
+    //the spilled bytes at which the buffer is written, higher after a failed write
+    private long flushBytes;
+    private final List<Segment> segments = new ArrayList<>();
+    private int nextSegment = 0;
+
+    private long faults = 0;
+    private long evictions = 0;
+    private long compactions = 0;
+    //segment reads avoided by the Bloom filters, and segment reads not finding the key although the filter had it
+    private long bloomNegatives = 0;
+    private long bloomFalsePositives = 0;
+    private long failedFlushes = 0;
+    private long failedCompactions = 0;
+    private long failedReads = 0;
+
+    public Store(String name, File directory, long budget, long segmentBytes, int maxSegments, int bloomBitsPerKey, boolean ordered) {
+        this.name = name;
+        this.directory = directory;
+        this.budget = budget;
+        this.windowBudget = Math.max(1, budget * WINDOW_PERCENT / 100);
+        this.protectedBudget = (budget - windowBudget) * PROTECTED_PERCENT / 100;
+        this.segmentBytes = segmentBytes;
+        this.flushBytes = segmentBytes;
+        this.maxSegments = Math.max(1, maxSegments);
+        this.bloomBitsPerKey = bloomBitsPerKey;
+        this.index = ordered ? new TreeMap<>() : null;
+        //about one counter per KB of budget, aged every ten samples per counter
+        int width = (int) Math.max(1024, Math.min(1 << 20, budget / 1024));
+        this.sketch = new CountMinSketch(4, width);
+        this.sampleSize = 10 * width;
+        if (budget > 0) deleteSegments();
+    }
+
+    //the copy of the key, brought back to memory if it was on disk; null if it is missing. Throws IOException if its
+    //copy on disk cannot be read
+    public Value get(String key) throws IOException {
+        long token = KeyToken.of(key);
+        record(token);
+        Entry entry = window.remove(key);
+        if (entry != null) {
+            window.put(key, entry);
+            return entry.value;
+        }
+        entry = probation.remove(key);
+        if (entry != null) {
+            probationBytes -= entry.weight;
+            promote(key, entry);
+            return entry.value;
+        }
+        entry = protectedSegment.remove(key);
+        if (entry != null) {
+            protectedSegment.put(key, entry);
+            return entry.value;
+        }
+        if (budget == 0) return null;
+        Value value = spilled.get(key);
+        boolean dirty = value != null;
+        if (value == REMOVED) return null;
+        if (dirty) {
+            spilled.remove(key);
+            spilledBytes -= weigh(key, value);
+        } else {
+            value = readDisk(key, token);
+            if (value == null || value == REMOVED) return null;
+        }
+        faults++;
+        admit(key, new Entry(value, weigh(key, value), dirty, token));
+        return value;
+    }
+
+    //the copy of the key without changing its place in the tiers, nor counting the access: null also if its copy on
+    //disk cannot be read, so that a write of the key replaces it
+    public Value peek(String key) {
+        Entry entry = window.get(key);
+        if (entry == null) entry = probation.get(key);
+        if (entry == null) entry = protectedSegment.get(key);
+        if (entry != null) return entry.value;
+        if (budget == 0) return null;
+        Value value = spilled.get(key);
+        try {
+            if (value == null) value = readDisk(key, KeyToken.of(key));
+        } catch (IOException e) {
+            log.error("Cannot read the copy of " + key + " in the segments of " + name, e);
+            return null;
+        }
+        return value == REMOVED ? null : value;
+    }
+
+    public void put(String key, Value value) {
+        long token = KeyToken.of(key);
+        record(token);
+        int weight = weigh(key, value);
+        Entry entry = window.remove(key);
+        if (entry != null) {
+            windowBytes -= entry.weight;
+            entry.update(value, weight);
+            admit(key, entry);
+            return;
+        }
+        //a write counts as a use: an entry of the main part moves to the protected segment
+        if ((entry = probation.remove(key)) != null) probationBytes -= entry.weight;
+        else if ((entry = protectedSegment.remove(key)) != null) protectedBytes -= entry.weight;
+        if (entry != null) {
+            entry.update(value, weight);
+            promote(key, entry);
+            evict();
+            return;
+        }
+        //a key not in memory is new unless it has a copy on disk: the Bloom filters spare the read for most new keys
+        Value old = spilled.remove(key);
+        if (old != null) spilledBytes -= weigh(key, old);
+        if (old != null ? old == REMOVED : !onDisk(key, token)) keyCount++;
+        admit(key, new Entry(value, weight, true, token));
+    }
+
+    public void remove(String key) {
+        Entry entry = window.remove(key);
+        if (entry != null) windowBytes -= entry.weight;
+        else if ((entry = probation.remove(key)) != null) probationBytes -= entry.weight;
+        else if ((entry = protectedSegment.remove(key)) != null) protectedBytes -= entry.weight;
+        if (entry != null) unindex(key);
+        Value old = spilled.remove(key);
+        if (old != null) spilledBytes -= weigh(key, old);
+        if (entry != null || (old != null ? old != REMOVED : onDisk(key, KeyToken.of(key)))) keyCount--;
+        //an older copy may be on disk
+        if (budget > 0 && !segments.isEmpty()) spill(key, REMOVED);
+    }
+
+    //all the copies, the ones on disk included, in key order: only the ones before the first segment which cannot be
+    //read
+    public void forEach(BiConsumer<String, Value> action) {
+        try {
+            scan(null, false, null, (key, value) -> {
+                action.accept(key, value);
+                return true;
+            });
+        } catch (IOException e) {
+            log.error("Cannot read all the copies in the segments of " + name, e);
+        }
+    }
+
+    //the copies from the first key, included or not, to the last one excluded, in key order until the action returns
+    //false: null bounds are open. The segments are read from the block of the first key, and only while the action
+    //wants more keys. Throws IOException if a segment cannot be read, once the action has had the keys before
+    public void scan(String from, boolean fromInclusive, String to, BiPredicate<String, Value> action) throws IOException {
+        List<Cursor> cursors = new ArrayList<>();
+        try {
+            for (int i = 0; i < segments.size(); i++) cursors.add(segments.get(i).reader(i, from, fromInclusive, to));
+            cursors.add(new MapCursor<>(range(spilled, from, fromInclusive, to), segments.size(), value -> value));
+            cursors.add(new MapCursor<>(memory(from, fromInclusive, to), segments.size() + 1, entry -> entry.value));
+            merge(cursors, (key, value) -> value == REMOVED || action.test(key, value));
+        } catch (IOException e) {
+            failedReads++;
+            throw e;
+        } finally {
+            for (Cursor cursor : cursors) cursor.close();
+        }
+    }
+
+    //the keys, the ones on disk included, in order: only the ones before the first segment which cannot be read
+    public List<String> keys() {
+        List<String> keys = new ArrayList<>(keyCount);
+        try {
+            scan(null, false, null, (key, value) -> keys.add(key));
+        } catch (IOException e) {
+            log.error("Cannot read all the keys in the segments of " + name, e);
+        }
+        return keys;
+    }
+
+    public int size() {
+        return keyCount;
+    }
+
+    public void addMetrics(String prefix, Map<String, Long> counters) {
+        counters.put(prefix + "MemoryBytes", windowBytes + probationBytes + protectedBytes);
+        counters.put(prefix + "IndexBytes", indexBytes);
+        counters.put(prefix + "MemoryKeys", (long) (window.size() + probation.size() + protectedSegment.size()));
+        counters.put(prefix + "Segments", (long) segments.size());
+        counters.put(prefix + "SegmentBytes", segments.stream().mapToLong(segment -> segment.bytes).sum());
+        counters.put(prefix + "Evictions", evictions);
+        counters.put(prefix + "Faults", faults);
+        counters.put(prefix + "Compactions", compactions);
+        counters.put(prefix + "BloomNegatives", bloomNegatives);
+        counters.put(prefix + "BloomFalsePositives", bloomFalsePositives);
+        long filtered = bloomNegatives + bloomFalsePositives;
+        counters.put(prefix + "FailedFlushes", failedFlushes);
+        counters.put(prefix + "FailedCompactions", failedCompactions);
+        counters.put(prefix + "FailedReads", failedReads);
+        counters.put(prefix + "BloomFalsePositivePpm", filtered == 0 ? 0 : bloomFalsePositives * 1_000_000 / filtered);
+    }
+
+    //-----------------------------------------------------------------------------------------
+    //memory tier
+
+    //counting an access to the key with the given token
+    private void record(long token) {
+        if (budget == 0) return;
+        if (++samples >= sampleSize) {
+            samples = 0;
+            sketch.age();
+        }
+        sketch.increment(token);
+    }
+
+    private void admit(String key, Entry entry) {
+        window.put(key, entry);
+        windowBytes += entry.weight;
+        if (index != null && index.put(key, entry) == null) indexBytes += INDEX_NODE_BYTES;
+        evict();
+    }
+
+    private void unindex(String key) {
+        if (index != null && index.remove(key) != null) indexBytes -= INDEX_NODE_BYTES;
+    }
+
+    //the entries in memory in the range, in key order: sorted here if the store is not ordered
+    private NavigableMap<String, Entry> memory(String from, boolean fromInclusive, String to) {
+        if (index != null) return range(index, from, fromInclusive, to);
+        TreeMap<String, Entry> sorted = new TreeMap<>();
+        BiConsumer<String, Entry> add = (key, entry) -> {
+            if (inRange(key, from, fromInclusive, to)) sorted.put(key, entry);
+        };
+        window.forEach(add);
+        probation.forEach(add);
+        protectedSegment.forEach(add);
+        return sorted;
+    }
+
+    //moving an entry used again to the protected segment, whose oldest entries go back to probation
+    private void promote(String key, Entry entry) {
+        protectedSegment.put(key, entry);
+        protectedBytes += entry.weight;
+        while (protectedBytes > protectedBudget && protectedSegment.size() > 1) {
+            Map.Entry<String, Entry> oldest = protectedSegment.entrySet().iterator().next();
+            protectedSegment.remove(oldest.getKey());
+            protectedBytes -= oldest.getValue().weight;
+            probation.put(oldest.getKey(), oldest.getValue());
+            probationBytes += oldest.getValue().weight;
+        }
+    }
+
+    private void evict() {
+        if (budget == 0) return;
+        long mainBudget = budget - windowBudget - indexBytes;
+        while (windowBytes > windowBudget) {
+            Map.Entry<String, Entry> candidate = window.entrySet().iterator().next();
+            String key = candidate.getKey();
+            Entry entry = candidate.getValue();
+            window.remove(key);
+            windowBytes -= entry.weight;
+            //the candidate takes the place of the oldest entries in probation only if it is used more often than them
+            boolean admitted = true;
+            while (probationBytes + protectedBytes + entry.weight > mainBudget) {
+                Map.Entry<String, Entry> victim = !probation.isEmpty() ? probation.entrySet().iterator().next()
+                        : !protectedSegment.isEmpty() ? protectedSegment.entrySet().iterator().next() : null;
+                if (victim == null || sketch.estimate(entry.token) <= sketch.estimate(victim.getValue().token)) {
+                    admitted = false;
+                    break;
+                }
+                if (probation.remove(victim.getKey()) != null) probationBytes -= victim.getValue().weight;
+                else if (protectedSegment.remove(victim.getKey()) != null) protectedBytes -= victim.getValue().weight;
+                evicted(victim.getKey(), victim.getValue());
+            }
+            if (admitted) {
+                probation.put(key, entry);
+                probationBytes += entry.weight;
+            } else {
+                evicted(key, entry);
+            }
+        }
+        //the main part can also grow when its entries are overwritten with larger values
+        while (probationBytes + protectedBytes > mainBudget && !(probation.isEmpty() && protectedSegment.isEmpty())) {
+            LinkedHashMap<String, Entry> queue = !probation.isEmpty() ? probation : protectedSegment;
+            Map.Entry<String, Entry> victim = queue.entrySet().iterator().next();
+            queue.remove(victim.getKey());
+            if (queue == probation) probationBytes -= victim.getValue().weight;
+            else protectedBytes -= victim.getValue().weight;
+            evicted(victim.getKey(), victim.getValue());
+        }
+    }
+
+    //a copy read from disk and not changed since is already there
+    private void evicted(String key, Entry entry) {
+        evictions++;
+        unindex(key);
+        if (entry.dirty) spill(key, entry.value);
+    }
+
+    private boolean inMemory(String key) {
+        return window.containsKey(key) || probation.containsKey(key) || protectedSegment.containsKey(key);
+    }
+
+    //the memory taken by an entry: the characters of the key, the value, and the objects holding them
+    private static int weigh(String key, Value value) {
+        return 64 + 2 * key.length() + value.size();
+    }
+
+
+    //the entries from the first key, included or not, to the last one excluded: null bounds are open
+    private static <V> NavigableMap<String, V> range(NavigableMap<String, V> map, String from, boolean fromInclusive, String to) {
+        if (from != null && to != null && from.compareTo(to) >= 0) return Collections.emptyNavigableMap();
+        if (from != null) map = map.tailMap(from, fromInclusive);
+        if (to != null) map = map.headMap(to, false);
+        return map;
+    }
+
+    private static boolean inRange(String key, String from, boolean fromInclusive, String to) {
+        if (from != null && (fromInclusive ? key.compareTo(from) < 0 : key.compareTo(from) <= 0)) return false;
+        return to == null || key.compareTo(to) < 0;
+    }
+
+    //-----------------------------------------------------------------------------------------
+    //disk tier
+
+    private void spill(String key, Value value) {
+        Value old = spilled.put(key, value);
+        if (old != null) spilledBytes -= weigh(key, old);
+        spilledBytes += weigh(key, value);
+        if (spilledBytes >= flushBytes) flush();
+    }
+
+    //writing the spilled entries as a new segment. If the write fails they stay in memory, over the budget, and the
+    //write is tried again once another segment of entries has been spilled
+    private void flush() {
+        if (spilled.isEmpty()) return;
+        File file = new File(directory, name + "-" + (nextSegment++) + ".seg");
+        try {
+            segments.add(Segment.write(file, spilled.entrySet().iterator(), spilled.size(), bloomBitsPerKey));
+        } catch (IOException e) {
+            failedFlushes++;
+            flushBytes = spilledBytes + segmentBytes;
+            log.error("Cannot write the segment " + file + ", keeping its " + spilled.size() + " entries in memory", e);
+            file.delete();
+            return;
+        }
+        spilled.clear();
+        spilledBytes = 0;
+        flushBytes = segmentBytes;
+        if (segments.size() > maxSegments) compact();
+    }
+
+    //the newest copy on disk, REMOVED if the newest is a tombstone, null if the key is not there
+    private Value readDisk(String key, long token) throws IOException {
+        try {
+            for (int i = segments.size() - 1; i >= 0; i--) {
+                Segment segment = segments.get(i);
+                if (!segment.inRange(key)) continue;
+                if (segment.filter != null && !segment.filter.mightContain(token)) {
+                    bloomNegatives++;
+                    continue;
+                }
+                Value value = segment.read(key);
+                if (value != null) return value;
+                if (segment.filter != null) bloomFalsePositives++;
+            }
+            return null;
+        } catch (IOException e) {
+            failedReads++;
+            throw e;
+        }
+    }
+
+    //whether the key has a copy on disk which is not a tombstone: a copy which cannot be read counts as missing, the
+    //key count is then off by one
+    private boolean onDisk(String key, long token) {
+        if (segments.isEmpty()) return false;
+        try {
+            Value value = readDisk(key, token);
+            return value != null && value != REMOVED;
+        } catch (IOException e) {
+            log.error("Cannot read the copy of " + key + " in the segments of " + name, e);
+            return false;
+        }
+    }
+
+    //the newest copy of each key in key order, tombstones included, until the action returns false
+    private static void merge(List<Cursor> cursors, Visitor action) throws IOException {
+        PriorityQueue<Cursor> queue = new PriorityQueue<>((a, b) -> {
+            int byKey = a.key.compareTo(b.key);
+            return byKey != 0 ? byKey : Integer.compare(b.age, a.age);
+        });
+        for (Cursor cursor : cursors) {
+            if (cursor.next()) queue.add(cursor);
+        }
+        String last = null;
+        while (!queue.isEmpty()) {
+            Cursor cursor = queue.poll();
+            if (!cursor.key.equals(last)) {
+                last = cursor.key;
+                if (!action.visit(cursor.key, cursor.value)) return;
+            }
+            if (cursor.next()) queue.add(cursor);
+        }
+    }
+
+    //merging all the segments into one, written while they are read so that only one record of each is in memory at
+    //once. The merged segment replaces them once it is written: if the merge fails they are kept
+    private void compact() {
+        //the filter of the merged segment is sized for all the records merged, an upper bound of its records
+        int records = 0;
+        for (Segment segment : segments) records += segment.records;
+        //the keys whose only copy is an expired one on disk, gone with the merge
+        int[] expired = {0};
+        long now = System.currentTimeMillis();
+        File file = new File(directory, name + "-" + (nextSegment++) + ".seg");
+        List<Cursor> readers = new ArrayList<>();
+        Segment.Writer writer = null;
+        Segment merged;
+        try {
+            Segment.Writer out = writer = new Segment.Writer(file, records, bloomBitsPerKey);
+            for (int i = 0; i < segments.size(); i++) readers.add(segments.get(i).reader(i, null, false, null));
+            merge(readers, (key, value) -> {
+                if (value == REMOVED) return true;
+                if (!value.isExpired(now)) out.add(key, value);
+                else if (!inMemory(key) && !spilled.containsKey(key)) expired[0]++;
+                return true;
+            });
+            merged = writer.finish();
+        } catch (IOException e) {
+            failedCompactions++;
+            log.error("Cannot merge the " + segments.size() + " segments of " + name + " into " + file + ", keeping them", e);
+            if (writer != null) writer.abort();
+            return;
+        } finally {
+            for (Cursor reader : readers) reader.close();
+        }
+        for (Segment segment : segments) segment.delete();
+        segments.clear();
+        if (merged != null) segments.add(merged);
+        keyCount -= expired[0];
+        compactions++;
+    }
+
+    private void deleteSegments() {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new UncheckedIOException(new IOException("cannot create the store directory " + directory));
+        }
+        File[] old = directory.listFiles((dir, file) -> file.startsWith(name + "-") && file.endsWith(".seg"));
+        if (old != null) for (File file : old) file.delete();
+    }
+
+    //the action of a merge on each key, which may write it
+    private interface Visitor {
+        boolean visit(String key, Value value) throws IOException;
+    }
+
+    //the copies of a source in key order, for the merges: among equal keys, the copy of the cursor with the highest
+    //age is the newest
+    private abstract static class Cursor {
+        private final int age;
+        String key;
+        Value value;
+
+        private Cursor(int age) {
+            this.age = age;
+        }
+
+        abstract boolean next() throws IOException;
+
+        void close() {
+        }
+    }
+
+    //the copies of a sorted map in memory: the spilled ones, or the entries of the memory tier
+    private static final class MapCursor<V> extends Cursor {
+        private final Iterator<Map.Entry<String, V>> entries;
+        private final Function<V, Value> values;
+
+        private MapCursor(NavigableMap<String, V> map, int age, Function<V, Value> values) {
+            super(age);
+            this.entries = map.entrySet().iterator();
+            this.values = values;
+        }
+
+        @Override
+        boolean next() {
+            if (!entries.hasNext()) return false;
+            Map.Entry<String, V> entry = entries.next();
+            key = entry.getKey();
+            value = values.apply(entry.getValue());
+            return true;
+        }
+    }
+
+    private static final class Entry {
+        private Value value;
+        private int weight;
+        //whether the copy on disk, if any, is older
+        private boolean dirty;
+        //see KeyToken, for the sketch
+        private final long token;
+
+        private Entry(Value value, int weight, boolean dirty, long token) {
+            this.value = value;
+            this.weight = weight;
+            this.dirty = dirty;
+            this.token = token;
+        }
+
+        private void update(Value value, int weight) {
+            this.value = value;
+            this.weight = weight;
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * A sorted file of records: key, LIVE ( or COMPRESSED) and the value, version, writer and expiry, or key and TOMBSTONE.
+     * A lookup binary searches the sparse index in memory and reads the block of INDEX_INTERVAL records it points to.
+     * The Bloom filter of the keys, tombstones included, is built while the file is written; null if disabled.
+     */
+    private static final class Segment {
+        private final File file;
+        private final BloomFilter filter;
+        private final RandomAccessFile in;
+        private final String[] indexKeys;
+        private final long[] indexOffsets;
+        private final String lastKey;
+        private final long bytes;
+        private final int records;
+
+        private Segment(File file, BloomFilter filter, String[] indexKeys, long[] indexOffsets, String lastKey, long bytes, int records) throws IOException {
+            this.file = file;
+            this.filter = filter;
+            this.in = new RandomAccessFile(file, "r");
+            this.indexKeys = indexKeys;
+            this.indexOffsets = indexOffsets;
+            this.lastKey = lastKey;
+            this.bytes = bytes;
+            this.records = records;
+        }
+
+        private static Segment write(File file, Iterator<Map.Entry<String, Value>> entries, int count, int bloomBitsPerKey) throws IOException {
+            Writer writer = new Writer(file, count, bloomBitsPerKey);
+            try {
+                while (entries.hasNext()) {
+                    Map.Entry<String, Value> entry = entries.next();
+                    writer.add(entry.getKey(), entry.getValue());
+                }
+                return writer.finish();
+            } catch (IOException e) {
+                writer.abort();
+                throw e;
+            }
+        }
+
+        private boolean inRange(String key) {
+            return key.compareTo(indexKeys[0]) >= 0 && key.compareTo(lastKey) <= 0;
+        }
+
+        //the copy of the key in this segment, REMOVED for a tombstone, null if the key is not here
+        private Value read(String key) throws IOException {
+            if (!inRange(key)) return null;
+            int block = Arrays.binarySearch(indexKeys, key);
+            if (block < 0) block = -block - 2;
+            long start = indexOffsets[block];
+            long end = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : bytes;
+            byte[] buffer = new byte[(int) (end - start)];
+            in.seek(start);
+            in.readFully(buffer);
+            DataInputStream records = new DataInputStream(new ByteArrayInputStream(buffer));
+            while (records.available() > 0) {
+                String current = readString(records);
+                int order = current.compareTo(key);
+                if (order > 0) return null;
+                Value value = readValue(records);
+                if (order == 0) return value;
+            }
+            return null;
+        }
+
+        //the records in the range, read from the block of the first key: null bounds are open
+        private Reader reader(int age, String from, boolean fromInclusive, String to) throws IOException {
+            long start = 0;
+            if (from != null && from.compareTo(lastKey) > 0) {
+                start = bytes;
+            } else if (from != null) {
+                int block = Arrays.binarySearch(indexKeys, from);
+                if (block < 0) block = -block - 2;
+                if (block >= 0) start = indexOffsets[block];
+            }
+            FileInputStream records = new FileInputStream(file);
+            try {
+                records.getChannel().position(start);
+            } catch (IOException e) {
+                records.close();
+                throw e;
+            }
+            return new Reader(new DataInputStream(new BufferedInputStream(records)), age, from, fromInclusive, to);
+        }
+
+        private void delete() {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+            file.delete();
+        }
+
+        private static Value readValue(DataInputStream in) throws IOException {
+            byte type = in.readByte();
+            if (type == TOMBSTONE) return REMOVED;
+            if (type == DELETED) return Value.deleted(in.readLong(), in.readLong(), in.readLong());
+            if (type == COMPRESSED) {
+                byte[] compressed = new byte[in.readInt()];
+                in.readFully(compressed);
+                return Value.compressed(compressed, in.readLong(), in.readLong(), in.readLong());
+            }
+            String value = readString(in);
+            return new Value(value, in.readLong(), in.readLong(), in.readLong());
+        }
+
+        //reads the records of the segment in order, skipping the ones before the range and stopping at its end
+        private static final class Reader extends Cursor {
+            private final DataInputStream in;
+            private final String from;
+            private final boolean fromInclusive;
+            private final String to;
+
+            private Reader(DataInputStream in, int age, String from, boolean fromInclusive, String to) {
+                super(age);
+                this.in = in;
+                this.from = from;
+                this.fromInclusive = fromInclusive;
+                this.to = to;
+            }
+
+            @Override
+            boolean next() throws IOException {
+                while (true) {
+                    try {
+                        key = readString(in);
+                    } catch (EOFException e) {
+                        return false;
+                    }
+                    value = readValue(in);
+                    if (to != null && key.compareTo(to) >= 0) return false;
+                    if (Store.inRange(key, from, fromInclusive, to)) return true;
+                }
+            }
+
+            @Override
+            void close() {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        //writes the records one by one, in key order, building the sparse index and the Bloom filter along: the filter
+        //is sized for the expected records
+        private static final class Writer {
+            private final File file;
+            private final BloomFilter filter;
+            private final CountingOutputStream counter;
+            private final DataOutputStream out;
+            private final List<String> keys = new ArrayList<>();
+            private final List<Long> offsets = new ArrayList<>();
+            private String lastKey = null;
+            private int records = 0;
+
+            private Writer(File file, int expected, int bloomBitsPerKey) throws IOException {
+                this.file = file;
+                this.filter = bloomBitsPerKey > 0 ? new BloomFilter(expected, bloomBitsPerKey) : null;
+                this.counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                this.out = new DataOutputStream(counter);
+            }
+
+            private void add(String key, Value value) throws IOException {
+                if (records++ % INDEX_INTERVAL == 0) {
+                    keys.add(key);
+                    offsets.add(counter.count);
+                }
+                lastKey = key;
+                if (filter != null) filter.add(KeyToken.of(key));
+                writeString(out, key);
+                if (value == REMOVED) {
+                    out.writeByte(TOMBSTONE);
+                    return;
+                }
+                if (value.isDeleted()) {
+                    out.writeByte(DELETED);
+                } else if (value.compressed != null) {
+                    out.writeByte(COMPRESSED);
+                    out.writeInt(value.compressed.length);
+                    out.write(value.compressed);
+                } else {
+                    out.writeByte(LIVE);
+                    writeString(out, value.value);
+                }
+                out.writeLong(value.version);
+                out.writeLong(value.writer);
+                out.writeLong(value.expiresAt);
+            }
+
+            //the written segment, null if it has no records ( its file is deleted)
+            private Segment finish() throws IOException {
+                out.close();
+                if (records == 0) {
+                    file.delete();
+                    return null;
+                }
+                long[] indexOffsets = new long[offsets.size()];
+                for (int i = 0; i < indexOffsets.length; i++) indexOffsets[i] = offsets.get(i);
+                return new Segment(file, filter, keys.toArray(new String[0]), indexOffsets, lastKey, counter.count, records);
+            }
+
+            private void abort() {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+                file.delete();
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    //writeUTF is limited to 64KB, values can be larger
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
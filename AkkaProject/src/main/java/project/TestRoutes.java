@@ -1,14 +1,20 @@
 package project;
 
+import akka.NotUsed;
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.ActorSystem;
 import akka.actor.typed.Scheduler;
 import akka.actor.typed.javadsl.AskPattern;
+import akka.http.javadsl.coding.Coder;
 import akka.http.javadsl.marshallers.jackson.Jackson;
-import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.*;
 import akka.http.javadsl.server.Route;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.time.Duration;
+import java.util.*;
 import java.util.concurrent.CompletionStage;
 
 import static akka.http.javadsl.server.Directives.*;
@@ -22,11 +28,16 @@ public class TestRoutes {
     private final ActorRef<DataNode.Command> node;
     private final Duration askTimeout;
     private final Scheduler scheduler;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Scanner scanner;
+    private static final ContentType NDJSON =
+            ContentTypes.create(MediaTypes.customWithFixedCharset("application", "x-ndjson", HttpCharsets.UTF_8, Collections.emptyMap(), false));
 
     public TestRoutes(ActorSystem<?> system, ActorRef<DataNode.Command> node) {
         this.node = node;
         scheduler = system.scheduler();
         askTimeout = system.settings().config().getDuration("akka.routes.ask-timeout");
+        scanner = new Scanner(system);
     }
 
     private CompletionStage<DataNode.Command> getAllLocalRequest() {
@@ -37,6 +48,25 @@ public class TestRoutes {
         return AskPattern.ask(node, ref -> new DataNode.GetNodesRequest( ref), askTimeout, scheduler);
     }
 
+    private Source<ByteString, NotUsed> export(String cursor, boolean cluster) {
+        Source<DataNode.ExportRecord, NotUsed> records = cluster ?
+                scanner.cluster(node, cursor, false, null, Integer.MAX_VALUE) :
+                scanner.node(node, cursor, false, null, false, Integer.MAX_VALUE);
+        return records.map(record -> ByteString.fromString(mapper.writeValueAsString(record) + "\n"));
+    }
+
+    private CompletionStage<DataNode.Command> getHotKeys() {
+        return AskPattern.ask(node, ref -> new DataNode.GetHotKeys(ref), askTimeout, scheduler);
+    }
+
+    private CompletionStage<DataNode.Command> getMetrics() {
+        return AskPattern.ask(node, ref -> new DataNode.GetMetrics(ref), askTimeout, scheduler);
+    }
+
+    private CompletionStage<DataNode.Command> getDistributionRequest() {
+        return AskPattern.ask(node, ref -> new DataNode.GetDistributionRequest(ref), askTimeout, scheduler);
+    }
+
 
     /**
      * This method creates test routes for our web app
@@ -62,6 +92,52 @@ public class TestRoutes {
                                 })
                             )
                         )
+                    ),
+                    pathPrefix("export", () ->
+                        pathEnd( () ->
+                            get(() ->
+                                parameterOptional("cursor", cursor ->
+                                    parameterOptional("scope", scope ->
+                                        optionalHeaderValueByName("Accept-Encoding", encodings -> {
+                                            Route export = complete(HttpEntities.createChunked(NDJSON,
+                                                    export(cursor.orElse(null), scope.orElse("local").equals("cluster"))));
+                                            //compressing only if asked, the export is plain NDJSON otherwise
+                                            if (encodings.isPresent() && encodings.get().contains("gzip")) {
+                                                return encodeResponseWith(Collections.singletonList(Coder.Gzip), () -> export);
+                                            }
+                                            return export;
+                                        })
+                                    )
+                                )
+                            )
+                        )
+                    ),
+                    pathPrefix("hotKeys", () ->
+                        pathEnd( () ->
+                            get(() ->
+                                onSuccess(this::getHotKeys, hotKeys -> {
+                                    return complete(StatusCodes.OK, hotKeys, Jackson.marshaller());
+                                })
+                            )
+                        )
+                    ),
+                    pathPrefix("metrics", () ->
+                        pathEnd( () ->
+                            get(() ->
+                                onSuccess(this::getMetrics, metrics -> {
+                                    return complete(StatusCodes.OK, metrics, Jackson.marshaller());
+                                })
+                            )
+                        )
+                    ),
+                    pathPrefix("distribution", () ->
+                        pathEnd( () ->
+                            get(() ->
+                                onSuccess(this::getDistributionRequest, getAnswer -> {
+                                    return complete(StatusCodes.OK, getAnswer, Jackson.marshaller());
+                                })
+                            )
+                        )
                     )
                 )
         );
@@ -1,19 +1,36 @@
 package project;
 
+import akka.NotUsed;
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.ActorSystem;
-import akka.actor.typed.Scheduler;
-import akka.actor.typed.javadsl.AskPattern;
 import akka.http.javadsl.marshallers.jackson.Jackson;
+import akka.http.javadsl.marshalling.sse.EventStreamMarshalling;
 import akka.http.javadsl.model.StatusCodes;
+import akka.http.javadsl.model.sse.ServerSentEvent;
 import akka.http.javadsl.server.PathMatchers;
 import akka.http.javadsl.server.Route;
+import akka.http.javadsl.unmarshalling.StringUnmarshallers;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Framing;
+import akka.stream.javadsl.FramingTruncation;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletionStage;
 
 import static akka.http.javadsl.server.Directives.*;
@@ -25,23 +42,140 @@ import static akka.http.javadsl.server.Directives.*;
 public class UserRoutes {
     //#user-routes-class
     private final ActorRef<DataNode.Command> node;
-    private final Duration askTimeout;
-    private final Scheduler scheduler;
+    private final Gateway gateway;
+    private final int bulkBatchSize;
+    private final int bulkParallelism;
+    private final int bulkMaxLineLength;
+    private final int scanDefaultLimit;
+    private final int scanMaxLimit;
+    private final long deleteGraceMillis;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Scanner scanner;
+    private final Watcher watcher;
+    private final Duration watchKeepAlive;
+    //null if akka.batching.enabled is off
+    private final RequestBatcher batcher;
 
-    public UserRoutes(ActorSystem<?> system, ActorRef<DataNode.Command> node) {
+    public UserRoutes(ActorSystem<?> system, ActorRef<DataNode.Command> node, Gateway gateway) {
         this.node = node;
-        scheduler = system.scheduler();
-        askTimeout = system.settings().config().getDuration("akka.routes.ask-timeout");
+        this.gateway = gateway;
+        bulkBatchSize = system.settings().config().getInt("akka.bulk.batch-size");
+        bulkParallelism = system.settings().config().getInt("akka.bulk.parallelism");
+        bulkMaxLineLength = system.settings().config().getBytes("akka.bulk.max-line-length").intValue();
+        scanDefaultLimit = system.settings().config().getInt("akka.index.default-limit");
+        scanMaxLimit = system.settings().config().getInt("akka.index.max-limit");
+        deleteGraceMillis = system.settings().config().getDuration("akka.deletes.grace").toMillis();
+        scanner = new Scanner(system);
+        watcher = new Watcher(system);
+        watchKeepAlive = system.settings().config().getDuration("akka.changes.keep-alive");
+        batcher = system.settings().config().getBoolean("akka.batching.enabled") ? new RequestBatcher(system, gateway) : null;
     }
 
     private CompletionStage<DataNode.Command> getRequest(String key) {
-        return AskPattern.ask(node, ref -> new DataNode.GetRequest(key, ref), askTimeout, scheduler);
+        if (batcher != null) return batcher.get(key);
+        return gateway.get(key);
     }
 
-    private CompletionStage<DataNode.Command> putRequest(String key, String value) {
-        return AskPattern.ask(node, ref -> new DataNode.PutRequest(key, new Value(value, -1), ref), askTimeout, scheduler);
+    private CompletionStage<DataNode.Command> putRequest(DictionaryEntry entry) {
+        //a conditional put is not batched: the batches are multi puts, which are unconditional
+        if (entry.expectedVersion != null) {
+            return gateway.put(entry.key, entry.toValue(), entry.expectedVersion, entry.expectedWriter == null ? 0 : entry.expectedWriter);
+        }
+        if (batcher != null) return batcher.put(entry.key, entry.toValue());
+        return gateway.put(entry.key, entry.toValue());
+    }
+
+    //a delete is the put of a tombstone, see Value.deleted
+    private CompletionStage<DataNode.Command> deleteRequest(String key) {
+        Value tombstone = Value.deleted(System.currentTimeMillis() + deleteGraceMillis);
+        if (batcher != null) return batcher.put(key, tombstone);
+        return gateway.put(key, tombstone);
+    }
+
+    private CompletionStage<DataNode.Command> multiGetRequest(List<String> keys) {
+        return gateway.multiGet(keys);
+    }
+
+    private CompletionStage<DataNode.Command> multiPutRequest(List<DictionaryEntry> entries) {
+        //if a key is repeated, the last value wins
+        Map<String, Value> values = new LinkedHashMap<>();
+        for (DictionaryEntry entry : entries) values.put(entry.key, entry.toValue());
+        return gateway.multiPut(values);
+    }
+
+    //parsing the NDJSON lines while they arrive and writing them as multi puts of bulk.batch-size entries,
+    //at most bulk.parallelism at a time: the socket is read only as fast as the cluster writes
+    private CompletionStage<BulkAnswer> bulkRequest(Source<ByteString, ?> body, Materializer materializer) {
+        return body
+                .via(Framing.delimiter(ByteString.fromString("\n"), bulkMaxLineLength, FramingTruncation.ALLOW))
+                .map(ByteString::utf8String)
+                .filter(line -> !line.trim().isEmpty())
+                .map(line -> mapper.readValue(line, DictionaryEntry.class))
+                .grouped(bulkBatchSize)
+                .mapAsync(bulkParallelism, batch -> multiPutRequest(batch).thenApply(answer -> {
+                    if (!(answer instanceof DataNode.PutAnswer) || !((DataNode.PutAnswer) answer).success){
+                        throw new IllegalStateException("batch of " + batch.size() + " entries not written");
+                    }
+                    return batch.size();
+                }))
+                .runFold(new BulkAnswer(0, 0), BulkAnswer::add, materializer);
+    }
+
+    //the entries of the cluster with the key in the range, in key order, at most limit: one more is read
+    //to know whether the answer needs a cursor to the next ones
+    private CompletionStage<ScanAnswer> scanRequest(String from, boolean fromInclusive, String to, int limit, Materializer materializer) {
+        return scanner.cluster(node, from, fromInclusive, to, limit + 1)
+                .take(limit + 1)
+                .runWith(Sink.seq(), materializer)
+                .thenApply(records -> {
+                    List<DictionaryEntry> entries = new ArrayList<>();
+                    for (int i = 0; i < records.size() && i < limit; i++) {
+                        entries.add(new DictionaryEntry(records.get(i).key, records.get(i).value));
+                    }
+                    String cursor = records.size() > limit ? entries.get(entries.size() - 1).key : null;
+                    return new ScanAnswer(entries, cursor);
+                });
+    }
+
+    //a prefix is the range from the prefix to the first key after the keys starting with it, a cursor
+    //replaces the first key of the range and is excluded
+    private Route scan(Optional<String> prefix, Optional<String> from, Optional<String> to, Optional<String> cursor,
+                       Optional<Integer> limit) {
+        if (prefix.isPresent() && (from.isPresent() || to.isPresent())) {
+            return complete(StatusCodes.BAD_REQUEST, "prefix cannot be combined with from or to");
+        }
+        int size = limit.orElse(scanDefaultLimit);
+        if (size <= 0) return complete(StatusCodes.BAD_REQUEST, "limit must be positive");
+        int pageLimit = Math.min(size, scanMaxLimit);
+        String first = prefix.orElse(from.orElse(null));
+        String last = prefix.isPresent() ? Scanner.prefixEnd(prefix.get()) : to.orElse(null);
+        boolean inclusive = true;
+        if (cursor.isPresent() && (first == null || cursor.get().compareTo(first) >= 0)) {
+            first = cursor.get();
+            inclusive = false;
+        }
+        String start = first;
+        boolean startInclusive = inclusive;
+        return extractMaterializer(materializer ->
+                onSuccess(scanRequest(start, startInclusive, last, pageLimit, materializer), answer ->
+                        complete(StatusCodes.OK, answer, Jackson.marshaller())));
     }
 
+    //the changes of the keys with the prefix as server-sent events, identified by the position of the watch in the
+    //change log of each node ( see Watcher): a client resumes from the Last-Event-ID it has received, or starts from
+    //the version given with from
+    private Route watch(Optional<String> prefix, Optional<Long> from, Optional<String> lastEventId) {
+        Map<String, Long> positions;
+        try {
+            positions = lastEventId.isPresent() ? Watcher.parse(lastEventId.get()) : null;
+        } catch (IllegalArgumentException e) {
+            return complete(StatusCodes.BAD_REQUEST, "Last-Event-ID must be a list of log:sequence");
+        }
+        Source<ServerSentEvent, NotUsed> events = watcher.cluster(node, prefix.orElse(null), from.orElse(Long.MAX_VALUE), positions)
+                .map(change -> ServerSentEvent.create(mapper.writeValueAsString(change.first()), "change", change.second()))
+                .keepAlive(watchKeepAlive, ServerSentEvent::heartbeat);
+        return completeOK(events, EventStreamMarshalling.toEventStream());
+    }
 
     /**
      * This method creates all the user routes of our web app
@@ -51,19 +185,95 @@ public class UserRoutes {
         return pathPrefix("dictionary",  () ->
             concat(
                 pathEnd( () ->
-                    post(() -> entity( Jackson.unmarshaller(DictionaryEntry.class), request ->
+                    concat(
+                        post(() -> entity( Jackson.unmarshaller(DictionaryEntry.class), request ->
+                            //#answer with a putAnswer message marshalled with Jackson
+                            onSuccess(putRequest(request), putAnswer -> {
+                                //a conditional put refused has the current version of the key in the answer
+                                if (putAnswer instanceof DataNode.ConditionalPutAnswer && !((DataNode.ConditionalPutAnswer) putAnswer).success){
+                                    return complete(StatusCodes.CONFLICT, putAnswer, Jackson.marshaller());
+                                }
+                                return complete(StatusCodes.OK, putAnswer, Jackson.marshaller());
+                            }))
+                        ),
+                        get(() ->
+                            //#answer with the entries in the range and the cursor to the next ones
+                            parameterOptional("prefix", prefix ->
+                            parameterOptional("from", from ->
+                            parameterOptional("to", to ->
+                            parameterOptional("cursor", cursor ->
+                            parameterOptional(StringUnmarshallers.INTEGER, "limit", limit ->
+                                scan(prefix, from, to, cursor, limit)
+                            )))))
+                        )
+                    )
+                ),
+                path("_mget", () ->
+                    post(() -> entity( Jackson.unmarshaller(MultiGetEntry.class), request ->
+                        //#answer with a multiGetAnswer message marshalled with Jackson
+                        onSuccess(multiGetRequest(request.keys), multiGetAnswer -> {
+                            return complete(StatusCodes.OK, multiGetAnswer, Jackson.marshaller());
+                        }))
+                    )
+                ),
+                path("_mput", () ->
+                    post(() -> entity( Jackson.unmarshaller(MultiPutEntry.class), request ->
                         //#answer with a putAnswer message marshalled with Jackson
-                        onSuccess(putRequest(request.key, request.value), putAnswer -> {
+                        onSuccess(multiPutRequest(request.entries), putAnswer -> {
                             return complete(StatusCodes.OK, putAnswer, Jackson.marshaller());
                         }))
                     )
                 ),
-                path(PathMatchers.segment(), (String key) ->
+                path("_watch", () ->
                     get(() ->
-                        //#answer with a getAnswer message marshalled with Jackson
-                        onSuccess(getRequest(key), getAnswer -> {
-                        return complete(StatusCodes.OK, getAnswer, Jackson.marshaller());
-                        }))
+                        //#answer with a stream of server-sent events, one for each change
+                        parameterOptional("prefix", prefix ->
+                        parameterOptional(StringUnmarshallers.LONG, "from", from ->
+                        optionalHeaderValueByName("Last-Event-ID", lastEventId ->
+                            watch(prefix, from, lastEventId)
+                        )))
+                    )
+                ),
+                path("_bulk", () ->
+                    post(() -> withoutRequestTimeout(() -> extractMaterializer(materializer ->
+                        extractRequestEntity(entity ->
+                            onComplete(bulkRequest(entity.withoutSizeLimit().getDataBytes(), materializer), result -> {
+                                if (result.isSuccess()) return complete(StatusCodes.OK, result.get(), Jackson.marshaller());
+                                //a malformed line or a batch not written: the entries before it may have been written
+                                return complete(StatusCodes.BAD_REQUEST, result.failed().get().getMessage());
+                            })
+                        )
+                    )))
+                ),
+                path(PathMatchers.segment(), (String key) ->
+                    concat(
+                        post(() -> entity( Jackson.unmarshaller(UpdateEntry.class), request ->
+                            //#answer with an updateAnswer message marshalled with Jackson
+                            onSuccess(gateway.update(key, request.operation(), request.by, request.value), updateAnswer -> {
+                                //the value is not an integer, the result overflows, or the value is erasure coded
+                                if (updateAnswer instanceof DataNode.UpdateAnswer && !((DataNode.UpdateAnswer) updateAnswer).success){
+                                    //unless the value cannot be read from disk
+                                    boolean unreadable = DataNode.GetAnswer.UNREADABLE.equals(((DataNode.UpdateAnswer) updateAnswer).error);
+                                    return complete(unreadable ? StatusCodes.INTERNAL_SERVER_ERROR : StatusCodes.BAD_REQUEST, updateAnswer, Jackson.marshaller());
+                                }
+                                return complete(StatusCodes.OK, updateAnswer, Jackson.marshaller());
+                            }))
+                        ),
+                        get(() ->
+                            //#answer with a getAnswer message marshalled with Jackson
+                            onSuccess(getRequest(key), getAnswer -> {
+                            //none of the copies read could be read from disk
+                            if (getAnswer instanceof DataNode.GetAnswer && ((DataNode.GetAnswer) getAnswer).error != null){
+                                return complete(StatusCodes.INTERNAL_SERVER_ERROR, getAnswer, Jackson.marshaller());
+                            }
+                            return complete(StatusCodes.OK, getAnswer, Jackson.marshaller());
+                            })),
+                        delete(() ->
+                            //#answer with a putAnswer message marshalled with Jackson
+                            onSuccess(deleteRequest(key), putAnswer -> {
+                            return complete(StatusCodes.OK, putAnswer, Jackson.marshaller());
+                            }))
+                    )
                 )
             )
         );
@@ -73,11 +283,103 @@ public class UserRoutes {
     public final static class DictionaryEntry{
         public final String key;
         public final String value;
+        //seconds after which the entry expires, null if it never does
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public final Long ttl;
+        //the version the key must have for the put to be applied, -1 if it must be missing; null for any version.
+        //Only for POST /dictionary
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public final Long expectedVersion;
+        //the writer of the expected version, as returned by a GET: required with it, unless it is -1
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public final Long expectedWriter;
+
+        public DictionaryEntry(String key, String value){
+            this(key, value, null, null, null);
+        }
 
         @JsonCreator
-        public DictionaryEntry(@JsonProperty("key")String key,@JsonProperty("value") String value){
+        public DictionaryEntry(@JsonProperty("key")String key,@JsonProperty("value") String value, @JsonProperty("ttl") Long ttl,
+                               @JsonProperty("expectedVersion") Long expectedVersion, @JsonProperty("expectedWriter") Long expectedWriter){
+            if (ttl != null && ttl <= 0) throw new IllegalArgumentException("ttl must be positive");
+            if (expectedVersion != null && expectedVersion != Value.UNASSIGNED && expectedWriter == null){
+                throw new IllegalArgumentException("expectedWriter is missing");
+            }
+            //a value without a string would be stored as a tombstone: deleting a key is DELETE /dictionary/:key
+            if (value == null) throw new IllegalArgumentException("value is missing");
             this.key = key;
             this.value = value;
+            this.ttl = ttl;
+            this.expectedVersion = expectedVersion;
+            this.expectedWriter = expectedWriter;
+        }
+
+        Value toValue(){
+            return ttl == null ? new Value(value) : new Value(value, System.currentTimeMillis() + ttl * 1000);
+        }
+    }
+
+    public final static class UpdateEntry{
+        //incr, decr or append
+        public final String op;
+        public final long by;
+        public final String value;
+
+        @JsonCreator
+        public UpdateEntry(@JsonProperty("op") String op, @JsonProperty("by") Long by, @JsonProperty("value") String value){
+            if (op == null) throw new IllegalArgumentException("op is missing");
+            this.op = op;
+            this.by = by == null ? 1 : by;
+            this.value = value;
+            if (operation() == DataNode.Operation.APPEND && value == null) throw new IllegalArgumentException("append needs a value");
+        }
+
+        DataNode.Operation operation(){
+            return DataNode.Operation.valueOf(op.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    public final static class BulkAnswer{
+        public final long entries;
+        public final long batches;
+        public final boolean success = true;
+
+        public BulkAnswer(long entries, long batches){
+            this.entries = entries;
+            this.batches = batches;
+        }
+
+        BulkAnswer add(int batchSize){
+            return new BulkAnswer(entries + batchSize, batches + 1);
+        }
+    }
+
+    public final static class ScanAnswer{
+        public final List<DictionaryEntry> entries;
+        //the key to pass as cursor for the next entries, null if there are none
+        public final String cursor;
+
+        public ScanAnswer(List<DictionaryEntry> entries, String cursor){
+            this.entries = entries;
+            this.cursor = cursor;
+        }
+    }
+
+    public final static class MultiGetEntry{
+        public final List<String> keys;
+
+        @JsonCreator
+        public MultiGetEntry(@JsonProperty("keys") List<String> keys){
+            this.keys = keys == null ? Collections.emptyList() : keys;
+        }
+    }
+
+    public final static class MultiPutEntry{
+        public final List<DictionaryEntry> entries;
+
+        @JsonCreator
+        public MultiPutEntry(@JsonProperty("entries") List<DictionaryEntry> entries){
+            this.entries = entries == null ? Collections.emptyList() : entries;
         }
     }
 
@@ -1,11 +1,102 @@
 package project;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.nio.charset.StandardCharsets;
+
 public class Value {
+    //version of a value not yet stamped by the hybrid logical clock of a node
+    public static final long UNASSIGNED = -1;
+
+    //null if the value is compressed, or deleted
     public final String value;
-    public  Integer version;
+    //the UTF-8 bytes of the value compressed with Lz4, null if it is not: see compress and text
+    @JsonIgnore
+    public final byte[] compressed;
+    public long version;
+    public long writer;
+    //epoch milliseconds after which the value is gone, NEVER if it has no ttl
+    public final long expiresAt;
+
+    public static final long NEVER = 0;
+
+    public Value(String value) {
+        this(value, UNASSIGNED, 0, NEVER);
+    }
+
+    public Value(String value, long expiresAt) {
+        this(value, UNASSIGNED, 0, expiresAt);
+    }
 
-    public Value(String value, Integer version) {
+    public Value(String value, long version, long writer) {
+        this(value, version, writer, NEVER);
+    }
+
+    @JsonCreator
+    public Value(@JsonProperty("value") String value, @JsonProperty("version") long version, @JsonProperty("writer") long writer,
+                 @JsonProperty("expiresAt") long expiresAt) {
+        this(value, null, version, writer, expiresAt);
+    }
+
+    private Value(String value, byte[] compressed, long version, long writer, long expiresAt) {
         this.value = value;
+        this.compressed = compressed;
         this.version = version;
+        this.writer = writer;
+        this.expiresAt = expiresAt;
+    }
+
+    public static Value compressed(byte[] compressed, long version, long writer, long expiresAt) {
+        return new Value(null, compressed, version, writer, expiresAt);
+    }
+
+    //the tombstone of a deleted key: it is versioned and replicated like a value, and newer versions win over it.
+    //It expires at expiresAt like a value, once the copies have had time to get it
+    public static Value deleted(long expiresAt) {
+        return deleted(UNASSIGNED, 0, expiresAt);
+    }
+
+    public static Value deleted(long version, long writer, long expiresAt) {
+        return new Value(null, null, version, writer, expiresAt);
+    }
+
+    @JsonIgnore
+    public boolean isDeleted() {
+        return value == null && compressed == null;
+    }
+
+    //the same value compressed if it is at least threshold characters long and compression makes it smaller
+    public Value compress(int threshold) {
+        if (compressed != null || value == null || threshold <= 0 || value.length() < threshold) return this;
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        byte[] packed = Lz4.compress(bytes);
+        if (packed.length >= bytes.length) return this;
+        return new Value(null, packed, version, writer, expiresAt);
+    }
+
+    //the value as a string, decompressed if needed: only when it is served
+    public String text() {
+        return compressed == null ? value : new String(Lz4.decompress(compressed), StandardCharsets.UTF_8);
+    }
+
+    //bytes kept in memory: two for each character of a string
+    public int size() {
+        return compressed != null ? compressed.length : value == null ? 0 : 2 * value.length();
+    }
+
+    public boolean isExpired(long nowMillis) {
+        return expiresAt != NEVER && expiresAt <= nowMillis;
+    }
+
+    public boolean isNewerThan(Value other) {
+        return HybridClock.compare(version, writer, other.version, other.writer) > 0;
+    }
+
+    @Override
+    public String toString() {
+        if (isDeleted()) return "<deleted>";
+        return compressed != null ? "<" + compressed.length + " compressed bytes>" : value;
     }
 }
@@ -0,0 +1,95 @@
+package project;
+
+import akka.NotUsed;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Scheduler;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.japi.Pair;
+import akka.stream.javadsl.Source;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Streams of the changes of the keys, merged from the change logs of all the data nodes ( see ChangeLog): each node
+ * streams the changes of its leader copies through a stream ref. The nodes are the ones known when the watch starts.
+ * Each change comes with the position of the watch: the sequence number of the last change received from each log,
+ * as log:sequence,log:sequence... A watch resumed from a position starts each node after its own last change, since
+ * the versions of the changes of different nodes are not received in order.
+ */
+public class Watcher {
+    private final Duration askTimeout;
+    private final Scheduler scheduler;
+
+    public Watcher(ActorSystem<?> system) {
+        scheduler = system.scheduler();
+        askTimeout = system.settings().config().getDuration("akka.routes.ask-timeout");
+    }
+
+    //the changes of all the nodes of the cluster which the given node knows in the order they arrive, each with the
+    //position after it: from the positions if they are not null, from the version otherwise
+    public Source<Pair<DataNode.Change, String>, NotUsed> cluster(ActorRef<DataNode.Command> dataNode, String prefix, long fromVersion,
+                                                                 Map<String, Long> positions) {
+        return Source.completionStage(AskPattern.<DataNode.Command, DataNode.Command>ask(dataNode,
+                ref -> new DataNode.GetNodesRequest(ref), askTimeout, scheduler))
+                .flatMapConcat(answer -> {
+                    CompletionStage<List<DataNode.WatchAnswer>> watches = CompletableFuture.completedFuture(new ArrayList<>());
+                    for (NodeInfo nodeInfo : ((DataNode.GetNodesAnswer) answer).nodes) {
+                        watches = watches.thenCombine(watch(nodeInfo.getNode(), prefix, fromVersion, positions), (all, watch) -> {
+                            all.add(watch);
+                            return all;
+                        });
+                    }
+                    return Source.completionStage(watches);
+                })
+                .flatMapConcat(watches -> {
+                    //every node starts at its position, so that it is resumed from there even if none of its changes
+                    //has been received
+                    Map<String, Long> start = new TreeMap<>();
+                    Source<DataNode.Change, NotUsed> merged = Source.empty();
+                    for (DataNode.WatchAnswer watch : watches) {
+                        if (watch.log != null) start.put(watch.log, watch.fromSequence);
+                        merged = merged.merge(watch.changes.getSource());
+                    }
+                    return merged.statefulMapConcat(() -> {
+                        Map<String, Long> position = new TreeMap<>(start);
+                        return change -> {
+                            position.put(change.log, change.sequence);
+                            return Collections.singletonList(Pair.create(change, format(position)));
+                        };
+                    });
+                });
+    }
+
+    //the changes of a single node
+    private CompletionStage<DataNode.WatchAnswer> watch(ActorRef<DataNode.Command> dataNode, String prefix, long fromVersion,
+                                                        Map<String, Long> positions) {
+        return AskPattern.<DataNode.Command, DataNode.Command>ask(dataNode,
+                ref -> new DataNode.Watch(prefix, fromVersion, positions, ref), askTimeout, scheduler)
+                .thenApply(answer -> (DataNode.WatchAnswer) answer);
+    }
+
+    public static String format(Map<String, Long> positions) {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Long> position : positions.entrySet()) {
+            if (text.length() > 0) text.append(',');
+            text.append(position.getKey()).append(':').append(position.getValue());
+        }
+        return text.toString();
+    }
+
+    //throws IllegalArgumentException if the text is not a position
+    public static Map<String, Long> parse(String text) {
+        Map<String, Long> positions = new TreeMap<>();
+        if (text.isEmpty()) return positions;
+        for (String position : text.split(",")) {
+            int colon = position.lastIndexOf(':');
+            if (colon <= 0) throw new IllegalArgumentException("not a log:sequence position: " + position);
+            positions.put(position.substring(0, colon), Long.parseLong(position.substring(colon + 1)));
+        }
+        return positions;
+    }
+}
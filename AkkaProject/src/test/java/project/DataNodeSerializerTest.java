@@ -0,0 +1,227 @@
+package project;
+
+import akka.actor.ExtendedActorSystem;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.Adapter;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.NotSerializableException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DataNodeSerializerTest {
+    private static ActorTestKit testKit;
+    private static DataNodeSerializer serializer;
+    private static ActorRef<DataNode.Command> node;
+
+    @BeforeClass
+    public static void setUp() {
+        testKit = ActorTestKit.create("DataNodeSerializerTest", ConfigFactory.parseString("akka.actor.provider = local"));
+        serializer = new DataNodeSerializer((ExtendedActorSystem) Adapter.toClassic(testKit.system()));
+        node = testKit.<DataNode.Command>createTestProbe().getRef();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        testKit.shutdownTestKit();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T roundTrip(T message) throws NotSerializableException {
+        return (T) serializer.fromBinary(serializer.toBinary(message), serializer.manifest(message));
+    }
+
+    private static void assertValue(Value expected, Value actual) {
+        assertEquals(expected.value, actual.value);
+        assertArrayEquals(expected.compressed, actual.compressed);
+        assertEquals(expected.version, actual.version);
+        assertEquals(expected.writer, actual.writer);
+        assertEquals(expected.expiresAt, actual.expiresAt);
+        assertEquals(expected.isDeleted(), actual.isDeleted());
+    }
+
+    private static void assertGet(DataNode.Get expected, DataNode.Get actual) {
+        assertEquals(expected.token, actual.token);
+        assertEquals(expected.key(), actual.key());
+        assertEquals(expected.replyTo, actual.replyTo);
+        assertEquals(expected.requestId, actual.requestId);
+        assertEquals(expected.successorID, actual.successorID);
+        assertEquals(expected.watch, actual.watch);
+    }
+
+    private static void assertGetAnswer(DataNode.GetAnswer expected, DataNode.GetAnswer actual) {
+        assertEquals(expected.key, actual.key);
+        assertEquals(expected.value, actual.value);
+        assertEquals(expected.isPresent, actual.isPresent);
+        assertEquals(expected.requestId, actual.requestId);
+        assertEquals(expected.version, actual.version);
+        assertEquals(expected.writer, actual.writer);
+        assertEquals(expected.successorId, actual.successorId);
+        assertEquals(expected.expiresAt, actual.expiresAt);
+        assertEquals(expected.error, actual.error);
+    }
+
+    private static void assertPut(DataNode.Put expected, DataNode.Put actual) {
+        assertEquals(expected.token, actual.token);
+        assertEquals(expected.key(), actual.key());
+        assertValue(expected.value(), actual.value());
+        assertEquals(expected.replyTo, actual.replyTo);
+        assertEquals(expected.isReplica, actual.isReplica);
+        assertEquals(expected.requestId, actual.requestId);
+        assertEquals(expected.successorId, actual.successorId);
+        assertEquals(expected.isWrite, actual.isWrite);
+    }
+
+    private static void assertPutAnswer(DataNode.PutAnswer expected, DataNode.PutAnswer actual) {
+        assertEquals(expected.success, actual.success);
+        assertEquals(expected.requestId, actual.requestId);
+    }
+
+    private static DataNode.Put put(String key, Value value, int requestId) {
+        return new DataNode.Put(KeyToken.of(key), key, value, node, true, requestId, 2);
+    }
+
+    @Test
+    public void get() throws NotSerializableException {
+        DataNode.Get get = new DataNode.Get(KeyToken.of("user:1"), "user:1", node, 42, 1, true);
+        assertGet(get, roundTrip(get));
+    }
+
+    @Test
+    public void redirectedGetKeepsItsKey() throws NotSerializableException {
+        DataNode.Get received = roundTrip(new DataNode.Get(KeyToken.of("user:1"), "user:1", node, 42, 1));
+        DataNode.Get redirected = roundTrip(new DataNode.Get(received, 2));
+        assertEquals("user:1", redirected.key());
+        assertEquals(2, redirected.successorID);
+    }
+
+    @Test
+    public void getAnswer() throws NotSerializableException {
+        DataNode.GetAnswer present = new DataNode.GetAnswer("user:1", "Ada", true, 42, 1234L, -7L, 1, 99L);
+        assertGetAnswer(present, roundTrip(present));
+        DataNode.GetAnswer missing = new DataNode.GetAnswer("user:1", null, false, 42, Value.UNASSIGNED, 0, 0, Value.NEVER);
+        assertGetAnswer(missing, roundTrip(missing));
+        DataNode.GetAnswer unreadable = new DataNode.GetAnswer("user:1", null, false, 42, Value.UNASSIGNED, 0, 2, Value.NEVER,
+                DataNode.GetAnswer.UNREADABLE);
+        assertGetAnswer(unreadable, roundTrip(unreadable));
+    }
+
+    @Test
+    public void put() throws NotSerializableException {
+        DataNode.Put put = put("user:1", new Value("Ada", 1234L, 5L, 99L), 42);
+        assertPut(put, roundTrip(put));
+        DataNode.Put write = new DataNode.Put(KeyToken.of("user:1"), "user:1", new Value("Ada", 1234L, 5L), node, false, 43, 2, true);
+        assertPut(write, roundTrip(write));
+    }
+
+    @Test
+    public void putOfCompressedAndDeletedValues() throws NotSerializableException {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 4096) text.append("abcabcabc");
+        Value compressed = new Value(text.toString(), 1234L, 5L, Value.NEVER).compress(1024);
+        assertNotNull(compressed.compressed);
+        DataNode.Put put = put("user:1", compressed, 42);
+        DataNode.Put received = roundTrip(put);
+        assertPut(put, received);
+        assertEquals(text.toString(), received.value().text());
+
+        DataNode.Put delete = put("user:2", Value.deleted(1234L, 5L, 99L), 43);
+        DataNode.Put deleted = roundTrip(delete);
+        assertPut(delete, deleted);
+        assertTrue(deleted.value().isDeleted());
+    }
+
+    @Test
+    public void redirectedPutKeepsItsKeyAndValue() throws NotSerializableException {
+        DataNode.Put received = roundTrip(put("user:1", new Value("Ada", 1234L, 5L), 42));
+        DataNode.Put redirected = roundTrip(new DataNode.Put(received, node, false, 43, 0));
+        assertEquals("user:1", redirected.key());
+        assertEquals("Ada", redirected.value().value);
+        assertFalse(redirected.isReplica);
+        assertEquals(43, redirected.requestId);
+    }
+
+    @Test
+    public void payloadDoesNotShareTheReceivedBytes() throws NotSerializableException {
+        DataNode.Put put = put("user:1", new Value("Ada", 1234L, 5L), 42);
+        byte[] bytes = serializer.toBinary(put);
+        DataNode.Put received = (DataNode.Put) serializer.fromBinary(bytes, serializer.manifest(put));
+        Arrays.fill(bytes, (byte) 0);
+        assertEquals("user:1", received.key());
+        assertEquals("Ada", received.value().value);
+    }
+
+    @Test
+    public void putAnswer() throws NotSerializableException {
+        DataNode.PutAnswer answer = new DataNode.PutAnswer(true, 42);
+        assertPutAnswer(answer, roundTrip(answer));
+    }
+
+    @Test
+    public void putBatch() throws NotSerializableException {
+        List<DataNode.Put> puts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) puts.add(put("user:" + i, new Value("value " + i, i, 5L), i));
+        DataNode.PutBatch received = roundTrip(new DataNode.PutBatch(puts));
+        assertEquals(puts.size(), received.puts.size());
+        for (int i = 0; i < puts.size(); i++) assertPut(puts.get(i), received.puts.get(i));
+    }
+
+    @Test
+    public void handoff() throws NotSerializableException {
+        DataNode.Handoff handoff = new DataNode.Handoff("user:1", new Value("Ada", 1234L, 5L, 99L), 1, node, 42);
+        DataNode.Handoff received = roundTrip(handoff);
+        assertEquals(handoff.key, received.key);
+        assertValue(handoff.value, received.value);
+        assertEquals(handoff.successorId, received.successorId);
+        assertEquals(handoff.replyTo, received.replyTo);
+        assertEquals(handoff.requestId, received.requestId);
+    }
+
+    @Test
+    public void getBatch() throws NotSerializableException {
+        List<DataNode.Get> gets = new ArrayList<>();
+        for (int i = 0; i < 10; i++) gets.add(new DataNode.Get(KeyToken.of("user:" + i), "user:" + i, node, i, 0));
+        DataNode.GetBatch received = roundTrip(new DataNode.GetBatch(gets));
+        assertEquals(gets.size(), received.gets.size());
+        for (int i = 0; i < gets.size(); i++) assertGet(gets.get(i), received.gets.get(i));
+    }
+
+    @Test
+    public void getBatchAnswer() throws NotSerializableException {
+        List<DataNode.GetAnswer> answers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) answers.add(new DataNode.GetAnswer("user:" + i, "value " + i, true, i, i, 5L, 0, Value.NEVER));
+        DataNode.GetBatchAnswer received = roundTrip(new DataNode.GetBatchAnswer(answers));
+        assertEquals(answers.size(), received.answers.size());
+        for (int i = 0; i < answers.size(); i++) assertGetAnswer(answers.get(i), received.answers.get(i));
+    }
+
+    @Test
+    public void putAnswerBatch() throws NotSerializableException {
+        List<DataNode.PutAnswer> answers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) answers.add(new DataNode.PutAnswer(i % 2 == 0, i));
+        DataNode.PutAnswerBatch received = roundTrip(new DataNode.PutAnswerBatch(answers));
+        assertEquals(answers.size(), received.answers.size());
+        for (int i = 0; i < answers.size(); i++) assertPutAnswer(answers.get(i), received.answers.get(i));
+    }
+
+    @Test
+    public void invalidate() throws NotSerializableException {
+        DataNode.Invalidate invalidate = new DataNode.Invalidate("user:1", 1234L, 5L);
+        DataNode.Invalidate received = roundTrip(invalidate);
+        assertEquals(invalidate.key, received.key);
+        assertEquals(invalidate.version, received.version);
+        assertEquals(invalidate.writer, received.writer);
+    }
+
+    @Test(expected = NotSerializableException.class)
+    public void unknownManifest() throws NotSerializableException {
+        serializer.fromBinary(new byte[0], "?");
+    }
+}
@@ -0,0 +1,99 @@
+package project;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ExpiryWheelTest {
+    private static final long START = 1_000_003;
+
+    @Test
+    public void expiresNeitherEarlyNorLate() {
+        ExpiryWheel wheel = new ExpiryWheel(1, START);
+        wheel.schedule("a", START + 100);
+        wheel.advance(START + 99);
+        assertTrue(wheel.takeExpired(10).isEmpty());
+        wheel.advance(START + 100);
+        assertEquals(Collections.singletonList("a"), wheel.takeExpired(10));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void expiryIsRoundedUpToTheNextTick() {
+        ExpiryWheel wheel = new ExpiryWheel(1000, START);
+        wheel.schedule("a", START + 1500);
+        wheel.advance(START + 1500);
+        assertTrue(wheel.takeExpired(10).isEmpty());
+        wheel.advance(START + 2500);
+        assertEquals(Collections.singletonList("a"), wheel.takeExpired(10));
+    }
+
+    @Test
+    public void pastExpiriesAreReadyAtOnce() {
+        ExpiryWheel wheel = new ExpiryWheel(1, START);
+        wheel.schedule("a", START - 10);
+        wheel.schedule("b", START);
+        assertEquals(Arrays.asList("a", "b"), wheel.takeExpired(10));
+    }
+
+    @Test
+    public void keysCascadeDownToTheirTick() {
+        //one key on each level, the first tick of the next wheel turn included
+        ExpiryWheel wheel = new ExpiryWheel(1, START);
+        long[] delays = {1, 63, 64, 65, 4095, 4096, 4097, 100_000, 262_143, 262_144, 262_145, 5_000_000};
+        for (long delay : delays) wheel.schedule("k" + delay, START + delay);
+        for (long delay : delays) {
+            wheel.advance(START + delay - 1);
+            assertTrue("k" + delay + " expired early", wheel.takeExpired(100).isEmpty());
+            wheel.advance(START + delay);
+            assertEquals(Collections.singletonList("k" + delay), wheel.takeExpired(100));
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void keysBeyondTheTopLevelComeBackAround() {
+        long range = 1L << 24;
+        ExpiryWheel wheel = new ExpiryWheel(1, START);
+        wheel.schedule("far", START + 3 * range + 7);
+        wheel.advance(START + 3 * range + 6);
+        assertTrue(wheel.takeExpired(10).isEmpty());
+        wheel.advance(START + 3 * range + 7);
+        assertEquals(Collections.singletonList("far"), wheel.takeExpired(10));
+    }
+
+    @Test
+    public void randomExpiriesAreTakenAtTheirTick() {
+        Random random = new Random(7);
+        ExpiryWheel wheel = new ExpiryWheel(1, START);
+        TreeMap<Long, List<String>> due = new TreeMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            long expiresAt = START + 1 + random.nextInt(400_000);
+            String key = "k" + i;
+            wheel.schedule(key, expiresAt);
+            due.computeIfAbsent(expiresAt, t -> new ArrayList<>()).add(key);
+        }
+        assertEquals(10_000, wheel.size());
+        for (long now = START; now <= START + 400_000 + 997; now += 997) {
+            wheel.advance(now);
+            Set<String> expected = new HashSet<>();
+            for (List<String> keys : due.headMap(now, true).values()) expected.addAll(keys);
+            due.headMap(now, true).clear();
+            assertEquals(expected, new HashSet<>(wheel.takeExpired(Integer.MAX_VALUE)));
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void expiredKeysAreTakenInBatchesInOrder() {
+        ExpiryWheel wheel = new ExpiryWheel(1, START);
+        for (int i = 5; i >= 1; i--) wheel.schedule("k" + i, START + i);
+        wheel.advance(START + 5);
+        assertEquals(Arrays.asList("k1", "k2"), wheel.takeExpired(2));
+        assertEquals(3, wheel.size());
+        assertEquals(Arrays.asList("k3", "k4", "k5"), wheel.takeExpired(10));
+        assertEquals(0, wheel.size());
+    }
+}
@@ -0,0 +1,87 @@
+package project;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongMapTest {
+
+    @Test
+    public void putGetAndReplace() {
+        LongMap<String> map = new LongMap<>();
+        assertTrue(map.isEmpty());
+        assertNull(map.put(1, "a"));
+        assertNull(map.put(2, "b"));
+        assertEquals("a", map.put(1, "c"));
+        assertEquals("c", map.get(1));
+        assertEquals("b", map.get(2));
+        assertNull(map.get(3));
+        assertEquals(2, map.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZero() {
+        new LongMap<String>().put(0, "a");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeKeys() {
+        new LongMap<String>().put(-1, "a");
+    }
+
+    @Test
+    public void resizeKeepsAllTheEntries() {
+        LongMap<Long> map = new LongMap<>(4);
+        for (long key = 1; key <= 10_000; key++) map.put(key, key * 10);
+        assertEquals(10_000, map.size());
+        for (long key = 1; key <= 10_000; key++) assertEquals(Long.valueOf(key * 10), map.get(key));
+        assertNull(map.get(10_001));
+    }
+
+    @Test
+    public void removeKeepsTheRestOfTheRunReachable() {
+        //a small table, so that the keys share runs which wrap around its end
+        LongMap<Long> map = new LongMap<>(64);
+        for (long key = 1; key <= 60; key++) map.put(key, key);
+        for (long key = 1; key <= 60; key += 3) assertEquals(Long.valueOf(key), map.remove(key));
+        for (long key = 1; key <= 60; key++) {
+            if (key % 3 == 1) assertNull(map.get(key));
+            else assertEquals(Long.valueOf(key), map.get(key));
+        }
+        assertEquals(40, map.size());
+        assertNull(map.remove(1));
+        assertNull(map.remove(1000));
+    }
+
+    @Test
+    public void clear() {
+        LongMap<String> map = new LongMap<>();
+        for (long key = 1; key <= 100; key++) map.put(key, "v");
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(50));
+        map.put(50, "w");
+        assertEquals("w", map.get(50));
+    }
+
+    @Test
+    public void behavesLikeAHashMap() {
+        Random random = new Random(42);
+        LongMap<Integer> map = new LongMap<>(8);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            long key = 1 + random.nextInt(2_000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = 1; key <= 2_000; key++) assertEquals(expected.get(key), map.get(key));
+    }
+}
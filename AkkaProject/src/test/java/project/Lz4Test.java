@@ -0,0 +1,116 @@
+package project;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class Lz4Test {
+
+    private static byte[] roundTrip(byte[] bytes) {
+        byte[] compressed = Lz4.compress(bytes);
+        byte[] decompressed = Lz4.decompress(compressed);
+        assertArrayEquals(bytes, decompressed);
+        return compressed;
+    }
+
+    private static byte[] random(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void emptyAndTinyArrays() {
+        roundTrip(new byte[0]);
+        for (int length = 1; length <= 20; length++) roundTrip(random(new Random(length), length));
+    }
+
+    @Test
+    public void repetitiveBytesShrink() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 2_000; i++) text.append("{\"user\":").append(i % 50).append(",\"status\":\"active\"}");
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        assertTrue(roundTrip(bytes).length < bytes.length / 4);
+    }
+
+    @Test
+    public void runsOfTheSameByte() {
+        //overlapping matches, with lengths continued in many extra bytes
+        for (int length : new int[]{13, 18, 19, 20, 270, 271, 1_000, 100_000}) {
+            byte[] bytes = new byte[length];
+            Arrays.fill(bytes, (byte) 'a');
+            roundTrip(bytes);
+        }
+    }
+
+    @Test
+    public void literalLengthsAroundTheTokenLimits() {
+        Random random = new Random(1);
+        for (int literals : new int[]{14, 15, 16, 269, 270, 271, 524, 525}) {
+            //incompressible literals followed by a repeated block, so that a match follows them
+            byte[] head = random(random, literals);
+            byte[] block = random(random, 64);
+            byte[] bytes = new byte[literals + 3 * block.length];
+            System.arraycopy(head, 0, bytes, 0, literals);
+            for (int i = 0; i < 3; i++) System.arraycopy(block, 0, bytes, literals + i * block.length, block.length);
+            roundTrip(bytes);
+        }
+    }
+
+    @Test
+    public void incompressibleBytes() {
+        byte[] bytes = random(new Random(2), 200_000);
+        //the worst case grows by the length header and about one byte every 255
+        assertTrue(roundTrip(bytes).length <= 4 + bytes.length + bytes.length / 255 + 16);
+    }
+
+    @Test
+    public void matchesBeyondTheMaximumOffset() {
+        //a block repeated after more than 64KB can't be referenced
+        Random random = new Random(3);
+        byte[] block = random(random, 1_000);
+        byte[] bytes = new byte[200_000];
+        random.nextBytes(bytes);
+        System.arraycopy(block, 0, bytes, 0, block.length);
+        System.arraycopy(block, 0, bytes, 100_000, block.length);
+        System.arraycopy(block, 0, bytes, 101_000, block.length);
+        roundTrip(bytes);
+    }
+
+    @Test
+    public void randomMixes() {
+        Random random = new Random(4);
+        for (int round = 0; round < 200; round++) {
+            byte[] bytes = new byte[random.nextInt(5_000)];
+            int position = 0;
+            while (position < bytes.length) {
+                int length = Math.min(bytes.length - position, 1 + random.nextInt(100));
+                if (position > 0 && random.nextBoolean()) {
+                    int from = random.nextInt(position);
+                    for (int i = 0; i < length; i++) bytes[position + i] = bytes[from + i];
+                } else {
+                    for (int i = 0; i < length; i++) bytes[position + i] = (byte) random.nextInt(4);
+                }
+                position += length;
+            }
+            roundTrip(bytes);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void offsetZeroIsCorrupted() {
+        //8 bytes expected, a sequence with no literals and a match at offset 0
+        Lz4.decompress(new byte[]{0, 0, 0, 8, 0x00, 0, 0});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongLengthIsCorrupted() {
+        byte[] compressed = Lz4.compress("hello world".getBytes(StandardCharsets.UTF_8));
+        compressed[3]++;
+        Lz4.decompress(compressed);
+    }
+}
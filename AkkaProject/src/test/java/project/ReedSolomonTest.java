@@ -0,0 +1,95 @@
+package project;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReedSolomonTest {
+
+    private static byte[] random(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    //the shards with the ones in missing dropped
+    private static byte[][] without(byte[][] shards, int... missing) {
+        byte[][] left = shards.clone();
+        for (int index : missing) left[index] = null;
+        return left;
+    }
+
+    @Test
+    public void dataShardsAreTheBytesThemselves() {
+        ReedSolomon code = new ReedSolomon(4, 2);
+        byte[] bytes = random(new Random(1), 100);
+        byte[][] shards = code.encode(bytes);
+        assertEquals(6, shards.length);
+        for (int i = 0; i < 4; i++) assertArrayEquals(Arrays.copyOfRange(bytes, i * 25, i * 25 + 25), shards[i]);
+    }
+
+    @Test
+    public void decodesWithAllTheShards() {
+        ReedSolomon code = new ReedSolomon(4, 2);
+        byte[] bytes = random(new Random(2), 1_000);
+        assertArrayEquals(bytes, code.decode(code.encode(bytes), bytes.length));
+    }
+
+    @Test
+    public void decodesWithAnyTwoShardsMissing() {
+        ReedSolomon code = new ReedSolomon(4, 2);
+        byte[] bytes = random(new Random(3), 1_001);
+        byte[][] shards = code.encode(bytes);
+        for (int first = 0; first < 6; first++) {
+            assertArrayEquals(bytes, code.decode(without(shards, first), bytes.length));
+            for (int second = first + 1; second < 6; second++) {
+                assertArrayEquals("missing " + first + " and " + second, bytes, code.decode(without(shards, first, second), bytes.length));
+            }
+        }
+    }
+
+    @Test
+    public void decodesFromTheParityShardsAlone() {
+        ReedSolomon code = new ReedSolomon(3, 3);
+        byte[] bytes = random(new Random(4), 300);
+        assertArrayEquals(bytes, code.decode(without(code.encode(bytes), 0, 1, 2), bytes.length));
+    }
+
+    @Test
+    public void lengthsNotMultipleOfTheDataShards() {
+        ReedSolomon code = new ReedSolomon(4, 2);
+        Random random = new Random(5);
+        for (int length = 0; length <= 17; length++) {
+            byte[] bytes = random(random, length);
+            assertArrayEquals(bytes, code.decode(without(code.encode(bytes), 0, 5), length));
+        }
+    }
+
+    @Test
+    public void randomErasuresOfALargerCode() {
+        ReedSolomon code = new ReedSolomon(10, 4);
+        Random random = new Random(6);
+        for (int round = 0; round < 100; round++) {
+            byte[] bytes = random(random, 1 + random.nextInt(10_000));
+            byte[][] shards = code.encode(bytes);
+            int missing = random.nextInt(5);
+            for (int i = 0; i < missing; i++) shards[random.nextInt(shards.length)] = null;
+            assertArrayEquals(bytes, code.decode(shards, bytes.length));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyShardsMissing() {
+        ReedSolomon code = new ReedSolomon(4, 2);
+        byte[] bytes = random(new Random(7), 100);
+        code.decode(without(code.encode(bytes), 0, 2, 4), bytes.length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyShardsForTheField() {
+        new ReedSolomon(200, 57);
+    }
+}
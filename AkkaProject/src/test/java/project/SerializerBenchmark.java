@@ -0,0 +1,126 @@
+package project;
+
+import akka.actor.ExtendedActorSystem;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Props;
+import akka.actor.typed.javadsl.Adapter;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.serialization.Serialization$;
+import akka.serialization.SerializerWithStringManifest;
+import akka.serialization.jackson.JacksonCborSerializer;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.io.NotSerializableException;
+import java.util.*;
+
+/**
+ * Compares DataNodeSerializer with the Jackson CBOR serializer on the messages exchanged among data nodes:
+ * bytes on the wire and nanoseconds spent to serialize and deserialize each message.
+ * Run it from the AkkaProject folder with
+ * mvn test-compile exec:java -Dexec.mainClass="project.SerializerBenchmark" -Dexec.classpathScope=test
+ */
+public class SerializerBenchmark {
+    private static final int WARMUP = 50_000;
+    private static final int ITERATIONS = 200_000;
+
+    private static long sink = 0;
+
+    public static void main(String[] args) {
+        Config config = ConfigFactory.parseString(
+                "akka.remote.artery.canonical.hostname = \"127.0.0.1\"\n" +
+                "akka.remote.artery.canonical.port = 0\n" +
+                "akka.cluster.seed-nodes = []\n" +
+                "akka.loglevel = WARNING\n" +
+                //the messages are bound to DataNodeSerializer, Jackson must be allowed to serialize them explicitly
+                "akka.serialization.jackson.whitelist-class-prefix = [\"project.\"]")
+                .withFallback(ConfigFactory.load());
+        ActorSystem<Void> system = ActorSystem.create(Behaviors.empty(), "ClusterSystem", config);
+        try {
+            ExtendedActorSystem classicSystem = (ExtendedActorSystem) Adapter.toClassic(system);
+            SerializerWithStringManifest jackson = new JacksonCborSerializer(classicSystem, "jackson-cbor");
+            SerializerWithStringManifest compact = new DataNodeSerializer(classicSystem);
+            ActorRef<DataNode.Command> node = system.systemActorOf(Behaviors.<DataNode.Command>empty(), "DataNode", Props.empty());
+
+            Map<String, Object> messages = new LinkedHashMap<>();
+            Value value = new Value("{\"name\":\"Ada\",\"surname\":\"Lovelace\",\"born\":1815,\"notes\":\"first programmer\"}",
+                    117468553584705536L, 1145609775681971311L);
+            messages.put("Get", new DataNode.Get(KeyToken.of("user:12345"), "user:12345", node, 4242, 1));
+            messages.put("GetAnswer", new DataNode.GetAnswer("user:12345", value.value, true, 4242, value.version, value.writer, 1, value.expiresAt));
+            messages.put("Put", new DataNode.Put(KeyToken.of("user:12345"), "user:12345", value, node, true, 4242, 1));
+            messages.put("PutAnswer", new DataNode.PutAnswer(true, 4242));
+            List<DataNode.Put> puts = new ArrayList<>();
+            for (int i = 0; i < 10; i++) puts.add(new DataNode.Put(KeyToken.of("user:" + i), "user:" + i, value, node, true, 4242 + i, 0));
+            messages.put("PutBatch(10)", new DataNode.PutBatch(puts));
+
+            System.out.println(String.format("%-16s %12s %12s %14s %14s %14s %14s",
+                    "message", "cbor bytes", "compact", "cbor ser ns", "compact ser ns", "cbor de ns", "compact de ns"));
+            for (Map.Entry<String, Object> entry : messages.entrySet()) {
+                Object message = entry.getValue();
+                //Jackson serializes the actor refs with the transport information, set by Artery when it sends a message
+                long[] cbor = Serialization$.MODULE$.withTransportInformation(classicSystem, () -> measure(jackson, message));
+                long[] binary = measure(compact, message);
+                System.out.println(String.format("%-16s %12d %12d %14d %14d %14d %14d",
+                        entry.getKey(), cbor[0], binary[0], cbor[1], binary[1], cbor[2], binary[2]));
+            }
+
+            //a node which redirects a put decodes it and encodes it again for the next hop
+            StringBuilder large = new StringBuilder();
+            while (large.length() < 64 * 1024) large.append("0123456789abcdef");
+            DataNode.Put put = new DataNode.Put(KeyToken.of("user:12345"), "user:12345", new Value(large.toString(), value.version, value.writer), node, true, 4242, 1);
+            long cborRedirect = Serialization$.MODULE$.withTransportInformation(classicSystem, () -> measureRedirect(jackson, put));
+            long compactRedirect = measureRedirect(compact, put);
+            System.out.println(String.format("redirect of a 64KB put: cbor %d ns, compact %d ns", cborRedirect, compactRedirect));
+            System.out.println("(checksum " + sink + ")");
+        } finally {
+            system.terminate();
+        }
+    }
+
+    //size in bytes, nanoseconds per serialization and nanoseconds per deserialization
+    private static long[] measure(SerializerWithStringManifest serializer, Object message) {
+        try {
+            return run(serializer, message);
+        } catch (NotSerializableException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //nanoseconds to receive a put and send it on to another node
+    private static long measureRedirect(SerializerWithStringManifest serializer, DataNode.Put put) {
+        try {
+            String manifest = serializer.manifest(put);
+            byte[] bytes = serializer.toBinary(put);
+            long start = 0;
+            for (int i = 0; i < WARMUP + ITERATIONS / 10; i++) {
+                if (i == WARMUP) start = System.nanoTime();
+                DataNode.Put received = (DataNode.Put) serializer.fromBinary(bytes, manifest);
+                sink += serializer.toBinary(new DataNode.Put(received, received.replyTo, true, received.requestId, 0)).length;
+            }
+            return (System.nanoTime() - start) / (ITERATIONS / 10);
+        } catch (NotSerializableException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long[] run(SerializerWithStringManifest serializer, Object message) throws NotSerializableException {
+        String manifest = serializer.manifest(message);
+        byte[] bytes = serializer.toBinary(message);
+        for (int i = 0; i < WARMUP; i++) {
+            sink += serializer.toBinary(message).length;
+            sink += serializer.fromBinary(bytes, manifest).hashCode();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += serializer.toBinary(message).length;
+        }
+        long serialization = (System.nanoTime() - start) / ITERATIONS;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += serializer.fromBinary(bytes, manifest).hashCode();
+        }
+        long deserialization = (System.nanoTime() - start) / ITERATIONS;
+        return new long[]{bytes.length, serialization, deserialization};
+    }
+}
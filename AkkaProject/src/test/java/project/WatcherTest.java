@@ -0,0 +1,130 @@
+package project;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.japi.Pair;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamRefs;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class WatcherTest {
+    private static ActorTestKit testKit;
+    private static Materializer materializer;
+    private static Watcher watcher;
+
+    @BeforeClass
+    public static void setUp() {
+        testKit = ActorTestKit.create("WatcherTest", ConfigFactory.parseString("akka.actor.provider = local")
+                .withFallback(ConfigFactory.load()));
+        materializer = Materializer.matFromSystem(testKit.system());
+        watcher = new Watcher(testKit.system());
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        testKit.shutdownTestKit();
+    }
+
+    //a data node which only knows the nodes and answers the watches of its change log, like DataNode.onWatch
+    private static Behavior<DataNode.Command> node(ChangeLog changes, List<NodeInfo> nodes) {
+        return Behaviors.receiveMessage(message -> {
+            if (message instanceof DataNode.GetNodesRequest) {
+                ((DataNode.GetNodesRequest) message).replyTo.tell(new DataNode.GetNodesAnswer(nodes));
+            } else if (message instanceof DataNode.Watch) {
+                DataNode.Watch watch = (DataNode.Watch) message;
+                long fromSequence = watch.positions == null ? changes.sequenceAfter(watch.fromVersion)
+                        : watch.positions.getOrDefault(changes.getId(), 0L);
+                watch.replyTo.tell(new DataNode.WatchAnswer(changes.watch(watch.prefix, fromSequence).runWith(StreamRefs.sourceRef(), materializer),
+                        changes.getId(), fromSequence));
+            }
+            return Behaviors.same();
+        });
+    }
+
+    private static List<Pair<DataNode.Change, String>> take(ActorRef<DataNode.Command> node, long fromVersion, Map<String, Long> positions,
+                                                            int count) throws Exception {
+        Source<Pair<DataNode.Change, String>, ?> changes = watcher.cluster(node, null, fromVersion, positions);
+        return changes.take(count).runWith(Sink.seq(), materializer).toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    private static Set<String> keys(List<Pair<DataNode.Change, String>> changes) {
+        Set<String> keys = new HashSet<>();
+        for (Pair<DataNode.Change, String> change : changes) keys.add(change.first().key);
+        return keys;
+    }
+
+    @Test
+    public void positionsRoundTrip() {
+        Map<String, Long> positions = new TreeMap<>();
+        positions.put("0a1b2c3d-kxz1", 42L);
+        positions.put("9f8e7d6c-kxz2", 0L);
+        assertEquals("0a1b2c3d-kxz1:42,9f8e7d6c-kxz2:0", Watcher.format(positions));
+        assertEquals(positions, Watcher.parse(Watcher.format(positions)));
+        assertTrue(Watcher.parse("").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void versionIsNotAPosition() {
+        Watcher.parse("117469238888955904");
+    }
+
+    @Test
+    public void reconnectingWithAnInterleavedIdResumesEachNode() throws Exception {
+        ChangeLog a = new ChangeLog("a", 16, materializer);
+        ChangeLog b = new ChangeLog("b", 16, materializer);
+        List<NodeInfo> nodes = new ArrayList<>();
+        ActorRef<DataNode.Command> nodeA = testKit.spawn(node(a, nodes));
+        ActorRef<DataNode.Command> nodeB = testKit.spawn(node(b, nodes));
+        nodes.add(new NodeInfo("000000000000000a", nodeA));
+        nodes.add(new NodeInfo("000000000000000b", nodeB));
+
+        a.record("a1", new Value("1", 100, 1), 100, 1);
+        b.record("b1", new Value("1", 90, 2), 90, 2);
+        a.record("a2", new Value("2", 110, 1), 110, 1);
+        //from the version 95, b1 is older: b starts after it
+        List<Pair<DataNode.Change, String>> first = take(nodeA, 95, null, 2);
+        assertEquals(Arrays.asList("a1", "a2"), Arrays.asList(first.get(0).first().key, first.get(1).first().key));
+        assertEquals(Arrays.asList("a:1,b:1", "a:2,b:1"), Arrays.asList(first.get(0).second(), first.get(1).second()));
+
+        //b stores a change older than the last one received from a, while the client is away: resuming from the
+        //version of the last event would skip it
+        b.record("b2", new Value("2", 105, 2), 105, 2);
+        a.record("a3", new Value("3", 120, 1), 120, 1);
+        List<Pair<DataNode.Change, String>> resumed = take(nodeB, Long.MAX_VALUE, Watcher.parse(first.get(1).second()), 2);
+        assertEquals(new HashSet<>(Arrays.asList("b2", "a3")), keys(resumed));
+        assertEquals("a:3,b:2", resumed.get(1).second());
+    }
+
+    @Test
+    public void aLogMissingFromTheIdIsReadFromItsFirstBufferedChange() throws Exception {
+        ChangeLog a = new ChangeLog("a", 16, materializer);
+        ChangeLog restarted = new ChangeLog("c", 16, materializer);
+        List<NodeInfo> nodes = new ArrayList<>();
+        ActorRef<DataNode.Command> nodeA = testKit.spawn(node(a, nodes));
+        nodes.add(new NodeInfo("000000000000000a", nodeA));
+        nodes.add(new NodeInfo("000000000000000c", testKit.spawn(node(restarted, nodes))));
+
+        a.record("a1", new Value("1", 100, 1), 100, 1);
+        restarted.record("c1", new Value("1", 50, 3), 50, 3);
+        //the id has the position of the log of the node before it restarted
+        Map<String, Long> positions = new TreeMap<>();
+        positions.put("a", 1L);
+        positions.put("old", 7L);
+        a.record("a2", new Value("2", 110, 1), 110, 1);
+        List<Pair<DataNode.Change, String>> resumed = take(nodeA, Long.MAX_VALUE, positions, 2);
+        assertEquals(new HashSet<>(Arrays.asList("a2", "c1")), keys(resumed));
+        assertEquals("a:2,c:1", resumed.get(1).second());
+    }
+}